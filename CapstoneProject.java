@@ -1,8 +1,85 @@
+package warehouse;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
 import java.awt.*;
 import java.io.*;
-import java.text.SimpleDateFormat;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 // ========================
 // LogManager Class
@@ -19,74 +96,498 @@ class InvalidPathException extends Exception {
     }
 }
 
-class LogManager {
-    private BufferedWriter writer;
-    private File currentLogFile;
-    private String baseFolder;             // For dynamic folder path
+// ========================
+// Timestamp Cache
+// ========================
+enum TimestampPrecision {
+    SECONDS, MILLIS, NANOS
+}
 
-    public LogManager(String folderName) {
-        this.baseFolder = folderName.trim();
+// Shared by all threads: the "HH:mm:ss" text is rendered once per second and reused,
+// millis/nanos are appended from java.time without going through a formatter.
+class TimestampCache {
+    private static final DateTimeFormatter SECOND_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    // Second and its text are published together so readers never see a mismatched pair
+    private static final class RenderedSecond {
+        final long epochSecond;
+        final String text;
+
+        RenderedSecond(long epochSecond, String text) {
+            this.epochSecond = epochSecond;
+            this.text = text;
+        }
+    }
+
+    private static final ZoneId zone = ZoneId.systemDefault();
+    private static volatile RenderedSecond lastSecond = new RenderedSecond(Long.MIN_VALUE, "");
+    private static volatile TimestampPrecision precision = TimestampPrecision.SECONDS;
+
+    public static void setPrecision(TimestampPrecision p) {
+        precision = (p == null) ? TimestampPrecision.SECONDS : p;
+    }
+
+    public static TimestampPrecision getPrecision() {
+        return precision;
+    }
+
+    // Current time as HH:mm:ss, HH:mm:ss.SSS or HH:mm:ss.nnnnnnnnn
+    public static String now() {
+        switch (precision) {
+            case MILLIS: {
+                long millis = System.currentTimeMillis();
+                return withFraction(secondText(Math.floorDiv(millis, 1000L)), (int) Math.floorMod(millis, 1000L), 3);
+            }
+            case NANOS: {
+                Instant instant = Instant.now();
+                return withFraction(secondText(instant.getEpochSecond()), instant.getNano(), 9);
+            }
+            default:
+                return secondText(Math.floorDiv(System.currentTimeMillis(), 1000L));
+        }
+    }
+
+    // The given time (epoch millis) in the same format; NANOS pads the millis with zeros
+    public static String at(long epochMillis) {
+        long second = Math.floorDiv(epochMillis, 1000L);
+        int millis = (int) Math.floorMod(epochMillis, 1000L);
+        switch (precision) {
+            case MILLIS:
+                return withFraction(secondText(second), millis, 3);
+            case NANOS:
+                return withFraction(secondText(second), millis * 1_000_000, 9);
+            default:
+                return secondText(second);
+        }
+    }
+
+    private static String secondText(long epochSecond) {
+        RenderedSecond cached = lastSecond;
+        if (cached.epochSecond != epochSecond) {
+            String text = SECOND_FORMAT.format(Instant.ofEpochSecond(epochSecond).atZone(zone));
+            cached = new RenderedSecond(epochSecond, text);
+            lastSecond = cached;
+        }
+        return cached.text;
+    }
+
+    private static String withFraction(String seconds, int fraction, int digits) {
+        char[] out = new char[seconds.length() + 1 + digits];
+        seconds.getChars(0, seconds.length(), out, 0);
+        out[seconds.length()] = '.';
+        for (int i = out.length - 1; i > seconds.length(); i--) {
+            out[i] = (char) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        return new String(out);
+    }
+}
+
+// ========================
+// Log Segment Writer
+// ========================
+// Encodes lines to UTF-8 into a preallocated direct buffer and writes it to the
+// current segment through a FileChannel. A new segment (log_HH-mm-ss.txt in the
+// usual Logs/<base>/yyyy/MMM/dd folder) is started once the current one reaches
+// maxSegmentBytes, is older than maxSegmentMillis or the day changes.
+// Segment files are not preallocated: Java can only extend a file sparsely (no blocks are
+// reserved) or by writing zeros (every byte written twice), and a live or crashed segment
+// would end in NULs that viewLog, LogQuery and the archiver read as text.
+class LogSegmentWriter extends Writer {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final String baseFolder;
+    private final long maxSegmentBytes;
+    private final long maxSegmentMillis;
+    private final Consumer<File> onNewSegment;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+    private FileChannel channel;
+    private DataOutputStream index;  // sparse (second-of-day, offset) entries, see LogIndex
+    private long lastIndexedOffset;
+    private File currentFile;
+    private long segmentBytes;       // bytes in the current segment, written or buffered
+    private long segmentOpenedAt;
+    private long nextMidnight;
+
+    public LogSegmentWriter(String baseFolder, long maxSegmentBytes, long maxSegmentMillis,
+                            Consumer<File> onNewSegment) throws InvalidPathException {
+        this.baseFolder = baseFolder;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentMillis = maxSegmentMillis;
+        this.onNewSegment = onNewSegment;
+        openSegment(ZonedDateTime.now());
+    }
+
+    public synchronized File getCurrentFile() {
+        return currentFile;
+    }
+
+    // Byte offset in the current segment where the next line will start
+    public synchronized long getSegmentOffset() {
+        return segmentBytes;
+    }
+
+    @Override
+    public synchronized void write(char[] cbuf, int off, int len) throws IOException {
+        append(CharBuffer.wrap(cbuf, off, len));
+    }
+
+    @Override
+    public synchronized void write(String str, int off, int len) throws IOException {
+        append(CharBuffer.wrap(str, off, off + len));
+    }
+
+    // Lines are written whole, so a segment is only ever rolled between lines
+    private void append(CharBuffer chars) throws IOException {
+        if (channel == null) throw new IOException("Log segment writer is closed.");
+        rollIfNeeded();
+        if (lastIndexedOffset < 0 || segmentBytes - lastIndexedOffset >= LogIndex.INTERVAL_BYTES) {
+            int second = LogIndex.parseSecondOfDay(chars);
+            if (second >= 0) {
+                index.writeInt(second);
+                index.writeLong(segmentBytes);
+                lastIndexedOffset = segmentBytes;
+            }
+        }
+        int before = buffer.position();
+        long written = 0;
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                written += buffer.position() - before;
+                drain();
+                before = 0;
+                continue;
+            }
+            break;
+        }
+        written += buffer.position() - before;
+        encoder.reset();
+        segmentBytes += written;
     }
 
-    // Initialize and create folder structure for logs
-    public void initializeLog() throws InvalidPathException {
+    private void rollIfNeeded() throws IOException {
+        long now = System.currentTimeMillis();
+        if (segmentBytes < maxSegmentBytes && now - segmentOpenedAt < maxSegmentMillis && now < nextMidnight) {
+            return;
+        }
+        ZonedDateTime time = ZonedDateTime.now();
+        File next = LogManager.logFileFor(baseFolder, time);
+        if (next.equals(currentFile)) {
+            return; // same second, keep writing so file names stay log_HH-mm-ss.txt
+        }
+        drain();
+        channel.close();
+        index.close();
         try {
+            openSegment(time);
+        } catch (InvalidPathException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
 
-            if (baseFolder == null || baseFolder.isEmpty()) {
-                throw new InvalidPathException("Base folder name is empty or null.");
+    private void openSegment(ZonedDateTime time) throws InvalidPathException {
+        File file = LogManager.createLogFile(baseFolder, time);
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            segmentBytes = channel.size();
+            index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(LogIndex.indexFileFor(file), true)));
+            lastIndexedOffset = -1;
+        } catch (IOException ioe) {
+            throw new InvalidPathException("I/O error while opening log writer: " + ioe.getMessage(), ioe);
+        }
+        currentFile = file;
+        segmentOpenedAt = System.currentTimeMillis();
+        nextMidnight = time.toLocalDate().plusDays(1).atStartOfDay(time.getZone()).toInstant().toEpochMilli();
+        if (onNewSegment != null) onNewSegment.accept(file);
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (channel != null) {
+            drain();
+            index.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) return;
+        try {
+            drain();
+        } finally {
+            channel.close();
+            index.close();
+            channel = null;
+        }
+    }
+}
+
+// ========================
+// Async Log Writer
+// ========================
+// Callers put finished lines on a bounded queue, one background thread
+// drains them in batches and flushes every batchSize lines or flushIntervalMs.
+class AsyncLogWriter {
+    private static final String STOP = new String("STOP"); // compared by identity
+
+    private final Writer out;
+    private final BlockingQueue<String> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final boolean dropWhenFull;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+    // submit holds the read side across its closed check and put; close takes the
+    // write side to flip closed, so no line can be queued behind STOP
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed = false;
+
+    public AsyncLogWriter(Writer out, String name, int queueCapacity, int batchSize,
+                          long flushIntervalMs, boolean dropWhenFull) {
+        this.out = out;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+        this.dropWhenFull = dropWhenFull;
+        this.worker = new Thread(this::drainLoop, "log-writer-" + name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    // Queue a line; blocks or drops (counted) when the queue is full or the writer is closed
+    public void submit(String line) {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                dropped.incrementAndGet();
+                return;
             }
+            if (dropWhenFull) {
+                if (!queue.offer(line)) dropped.incrementAndGet();
+                return;
+            }
+            queue.put(line);
+        } catch (InterruptedException e) {
+            dropped.incrementAndGet();
+            Thread.currentThread().interrupt();
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
 
-            Date now = new Date();
+    public long getDroppedCount() {
+        return dropped.get();
+    }
 
-            // Format year, month, date, time for folder and file
-            SimpleDateFormat yearFormat = new SimpleDateFormat("yyyy");
-            SimpleDateFormat monthFormat = new SimpleDateFormat("MMM");
-            SimpleDateFormat dateFormat = new SimpleDateFormat("dd");
-            SimpleDateFormat timeFormat = new SimpleDateFormat("HH-mm-ss");
+    // Stop accepting lines and wait until everything queued is written
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) return;
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(STOP);
+                worker.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (dropped.get() > 0) {
+            System.err.println("[LOG] " + worker.getName() + " dropped " + dropped.get() + " line(s) (queue full, closed or write error).");
+        }
+    }
 
-            String year = yearFormat.format(now);
-            String month = monthFormat.format(now);
-            String date = dateFormat.format(now);
-            String time = timeFormat.format(now);
+    private void drainLoop() {
+        List<String> batch = new ArrayList<>(batchSize);
+        long lastFlush = System.currentTimeMillis();
+        boolean dirty = false;
+        boolean stop = false;
 
-            // Folder structure: logs/year/month/date/
-            String folderPath = "Logs/" + baseFolder + "/" + year + "/" + month + "/" + date;
-            File folder = new File(folderPath);
-            if (!folder.exists()) {
-                boolean created = folder.mkdirs();
-                if (!created && !folder.exists()) {
-                    throw new InvalidPathException("Failed to create folder path: " + folderPath);
+        while (!stop) {
+            try {
+                String first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+            } catch (InterruptedException e) {
+                // only close() stops the writer, keep draining
+            }
+            // Every line is written or counted as dropped; a failed write never hides STOP
+            int failed = 0;
+            IOException lastError = null;
+            for (String line : batch) {
+                if (line == STOP) {
+                    stop = true;
+                    continue;
+                }
+                try {
+                    out.write(line);
+                    dirty = true;
+                } catch (IOException e) {
+                    failed++;
+                    lastError = e;
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (dirty && (stop || batch.size() >= batchSize || now - lastFlush >= flushIntervalMs)) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    lastError = e;
                 }
-                System.out.println("[LOG] Created folders: " + folderPath);
+                dirty = false;
+                lastFlush = now;
+            }
+            if (lastError != null) {
+                dropped.addAndGet(failed);
+                System.err.println("Error writing to log: " + lastError.getMessage()
+                        + (failed > 0 ? " (" + failed + " line(s) dropped)" : ""));
             }
+            batch.clear();
+        }
+    }
+}
 
-            // Create timestamped log file
-            String fileName = "log_" + time + ".txt";
-            File logFile = new File(folderPath, fileName);
-            try {
-                boolean fileCreated = logFile.createNewFile();
-                // If file cannot be created, throw InvalidPathException
-                if (!fileCreated && !logFile.exists()) {
-                    throw new InvalidPathException("Failed to create log file: " + logFile.getAbsolutePath());
+// ========================
+// Log File Mover
+// ========================
+// Moves are a rename when source and destination share a filesystem; otherwise
+// (and for copies) the bytes go file-to-file through FileChannel.transferTo.
+class LogFileMover {
+    public static final String ARCHIVE_SUFFIX = ".gz";
+    private static final int COMPRESS_BUFFER = 64 * 1024;
+
+    public static void move(Path source, Path destination) throws IOException {
+        try {
+            Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Different filesystem: copy without going through user-space buffers, then drop the source
+            copy(source, destination);
+            Files.delete(source);
+        }
+    }
+
+    public static void copy(Path source, Path destination) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    // Stream source through GZIP into a .tmp next to the destination, then rename it into
+    // place: the destination is either absent or complete, never a partial archive
+    public static void compress(Path source, Path gzDestination) throws IOException {
+        Path temp = gzDestination.resolveSibling(gzDestination.getFileName() + ".tmp");
+        try {
+            try (InputStream in = Files.newInputStream(source);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), COMPRESS_BUFFER)) {
+                byte[] buffer = new byte[COMPRESS_BUFFER];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, length);
                 }
-            } catch (IOException ioe) {
-                // Wrap and re-throw as InvalidPathException (user-defined)
-                throw new InvalidPathException("I/O error while creating log file: " + ioe.getMessage(), ioe);
             }
+            Files.move(temp, gzDestination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
 
-            //homemadeAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA
-            currentLogFile = logFile; //Assign to currentLogFile so archiveLog()
+    // Compress into the archive and remove the source once the .gz is complete
+    public static void compressAndRemove(Path source, Path gzDestination) throws IOException {
+        compress(source, gzDestination);
+        Files.delete(source);
+    }
 
-            // Open writer
-            try {
-                writer = new BufferedWriter(new FileWriter(logFile, true));
-            } catch (IOException ioe) {
-                // wrap and rethrow
-                throw new InvalidPathException("I/O error while opening log writer: " + ioe.getMessage(), ioe);
+    // Read an archived .gz log as text
+    public static BufferedReader openArchived(Path gzFile) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(gzFile), COMPRESS_BUFFER), StandardCharsets.UTF_8));
+    }
+
+    // Archived name of a log file: log_HH-mm-ss.txt -> log_HH-mm-ss.txt.gz
+    public static String archivedName(String fileName) {
+        return fileName + ARCHIVE_SUFFIX;
+    }
+}
+
+class LogManager {
+    // Defaults for enableAsync()
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 200;
+
+    // Folder/file name formats (thread-safe, shared by all logs)
+    private static final DateTimeFormatter YEAR_FORMAT = DateTimeFormatter.ofPattern("yyyy");
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("MMM");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH-mm-ss");
+    private static final DateTimeFormatter FOLDER_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy/MMM/dd");
+
+    // Defaults for segment rotation
+    public static final long DEFAULT_SEGMENT_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_MILLIS = 60L * 60 * 1000;
+
+    // Written only under the LogManager lock; volatile so writeLine can read them without it
+    private volatile LogSegmentWriter writer;
+    private volatile AsyncLogWriter asyncWriter;    // null = write and flush on the caller's thread
+    private volatile boolean closed = false;        // set by closeLog(), later lines are dropped
+    private volatile File currentLogFile;
+    private final List<File> segmentFiles = Collections.synchronizedList(new ArrayList<>());
+    private long maxSegmentBytes = DEFAULT_SEGMENT_BYTES;
+    private long maxSegmentMillis = DEFAULT_SEGMENT_MILLIS;
+    private String baseFolder;             // For dynamic folder path
+
+    public LogManager(String folderName) {
+        this.baseFolder = folderName.trim();
+    }
+
+    // Initialize and create folder structure for logs (once; a closed log stays closed)
+    public synchronized void initializeLog() throws InvalidPathException {
+        if (closed) throw new InvalidPathException("Log " + baseFolder + " is closed.");
+        if (writer != null) return;
+        try {
+
+            if (baseFolder == null || baseFolder.isEmpty()) {
+                throw new InvalidPathException("Base folder name is empty or null.");
             }
 
-            log("[SYSTEM] Log initialized at " + now);
-            System.out.println("[LOG] Log file created: " + logFile.getAbsolutePath());
+            ZonedDateTime now = ZonedDateTime.now();
+
+            // Open writer; it creates the first segment and reports every new one
+            writer = new LogSegmentWriter(baseFolder, maxSegmentBytes, maxSegmentMillis, file -> {
+                currentLogFile = file; //Assign to currentLogFile so archiveLog()
+                segmentFiles.add(file);
+            });
+
+            log("[SYSTEM] Log initialized at " + Date.from(now.toInstant()));
+            System.out.println("[LOG] Log file created: " + currentLogFile.getAbsolutePath());
 
         } catch (InvalidPathException ipe) {
             // rethrow user-defined exception unchanged
@@ -97,24 +598,129 @@ class LogManager {
         }
     }
 
+    // Segment file for the given time: Logs/<base>/yyyy/MMM/dd/log_HH-mm-ss.txt
+    static File logFileFor(String baseFolder, ZonedDateTime now) {
+        String folderPath = "Logs/" + baseFolder + "/" + YEAR_FORMAT.format(now) + "/"
+                + MONTH_FORMAT.format(now) + "/" + DATE_FORMAT.format(now);
+        return new File(folderPath, "log_" + TIME_FORMAT.format(now) + ".txt");
+    }
+
+    // Create the folder structure and (empty) log file for the given time
+    static File createLogFile(String baseFolder, ZonedDateTime now) throws InvalidPathException {
+        File logFile = logFileFor(baseFolder, now);
+
+        // Folder structure: logs/year/month/date/
+        File folder = logFile.getParentFile();
+        String folderPath = folder.getPath();
+        if (!folder.exists()) {
+            boolean created = folder.mkdirs();
+            if (!created && !folder.exists()) {
+                throw new InvalidPathException("Failed to create folder path: " + folderPath);
+            }
+            System.out.println("[LOG] Created folders: " + folderPath);
+        }
+
+        // Create timestamped log file
+        try {
+            boolean fileCreated = logFile.createNewFile();
+            // If file cannot be created, throw InvalidPathException
+            if (!fileCreated && !logFile.exists()) {
+                throw new InvalidPathException("Failed to create log file: " + logFile.getAbsolutePath());
+            }
+        } catch (IOException ioe) {
+            // Wrap and re-throw as InvalidPathException (user-defined)
+            throw new InvalidPathException("I/O error while creating log file: " + ioe.getMessage(), ioe);
+        }
+        return logFile;
+    }
+
+    // Roll to a new segment after maxBytes or maxMillis; takes effect on the next initializeLog()
+    public synchronized void setSegmentLimits(long maxBytes, long maxMillis) {
+        if (maxBytes <= 0 || maxMillis <= 0) {
+            throw new IllegalArgumentException("Segment limits must be positive.");
+        }
+        this.maxSegmentBytes = maxBytes;
+        this.maxSegmentMillis = maxMillis;
+    }
+
+    // Every segment written by this log, oldest first
+    public List<File> getSegmentFiles() {
+        synchronized (segmentFiles) {
+            return new ArrayList<>(segmentFiles);
+        }
+    }
+
+    // Switch to queued writing with the default settings
+    public void enableAsync() throws InvalidPathException {
+        enableAsync(DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS, false);
+    }
+
+    // Switch to queued writing: lines go to a bounded queue drained by a background thread
+    public synchronized void enableAsync(int queueCapacity, int batchSize, long flushIntervalMs, boolean dropWhenFull)
+            throws InvalidPathException {
+        if (queueCapacity <= 0) throw new InvalidPathException("Async log queue capacity must be positive.");
+        initializeLog();
+        if (asyncWriter == null) {
+            asyncWriter = new AsyncLogWriter(writer, baseFolder, queueCapacity, batchSize, flushIntervalMs, dropWhenFull);
+        }
+    }
+
+    // Build the timestamped line written to the file
+    public static String formatLine(String message) {
+        return formatLine(message, TimestampCache.now());
+    }
+
+    public static String formatLine(String message, String timestamp) {
+        return new StringBuilder(timestamp.length() + message.length() + 4)
+                .append('[').append(timestamp).append("] ").append(message).append('\n')
+                .toString();
+    }
+
     // Write a log entry with timestamp
     public void log(String message) {
+        writeLine(formatLine(message));
+    }
+
+    // Write an already formatted line (see formatLine) so it can be shared between logs
+    public void writeLine(String line) {
+        long span = Tracer.start();
         try {
-            if (writer == null) initializeLog();
-            String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
-            writer.write("[" + timestamp + "] " + message + "\n");
-            writer.flush();
+            if (closed) return;
+            LogSegmentWriter out = writer;
+            if (out == null) {
+                initializeLog();
+                out = writer;
+            }
+            AsyncLogWriter async = asyncWriter;
+            if (async != null) {
+                async.submit(line);
+                return;
+            }
+            out.write(line);
+            out.flush();
         } catch (IOException | InvalidPathException e) {
-            System.err.println("Error writing to log: " + e.getMessage());
+            // A line racing closeLog() is refused by the closed writer and dropped quietly
+            if (!closed) System.err.println("Error writing to log: " + e.getMessage());
+        } finally {
+            Tracer.end("LogManager.writeLine", "log", span);
         }
     }
 
-    // Close the log safely
-    public void closeLog() {
+    // Close the log safely, waiting for queued lines to be written first; later lines are dropped
+    public synchronized void closeLog() {
+        if (closed) return;
         try {
             if (writer != null) {
                 log("[SYSTEM] Log closed.");
+            }
+            closed = true;
+            if (asyncWriter != null) {
+                asyncWriter.close();
+                asyncWriter = null;
+            }
+            if (writer != null) {
                 writer.close();
+                writer = null;
             }
         } catch (IOException e) {
             System.err.println("Error closing log: " + e.getMessage());
@@ -123,11 +729,19 @@ class LogManager {
 
     // Archive current log file
     public void archiveLog() {
-        if (currentLogFile == null) {
+        List<File> segments = getSegmentFiles();
+        if (segments.isEmpty()) {
             System.out.println("No log file to archive.");
             return;
         }
 
+        // A rotated log has several segments, archive all of them
+        for (File segment : segments) {
+            archiveFile(segment);
+        }
+    }
+
+    private void archiveFile(File currentLogFile) {
         try {
             // Extract year/month/date from currentLogFile path
             File parent = currentLogFile.getParentFile(); // points to date folder
@@ -139,17 +753,10 @@ class LogManager {
             File archiveDir = new File(archiveFolderPath);
             if (!archiveDir.exists()) archiveDir.mkdirs();
 
-            File destFile = new File(archiveDir, currentLogFile.getName());
+            File destFile = new File(archiveDir, LogFileMover.archivedName(currentLogFile.getName()));
 
-            try (FileInputStream in = new FileInputStream(currentLogFile);
-                 FileOutputStream out = new FileOutputStream(destFile)) {
-
-                byte[] buffer = new byte[1024];
-                int length;
-                while ((length = in.read(buffer)) > 0) {
-                    out.write(buffer, 0, length);
-                }
-            }
+            // The live copy stays in place; the archive holds the compressed form
+            LogFileMover.compress(currentLogFile.toPath(), destFile.toPath());
 
             System.out.println("[LOG] Archived file to: " + destFile.getAbsolutePath());
         } catch (IOException e) {
@@ -157,8 +764,7 @@ class LogManager {
         }
     }
 
-    public void viewLog() throws InvalidPathException {
-        Scanner sc = new Scanner(System.in);
+    public void viewLog(Scanner sc) throws InvalidPathException {
         while (true) {
             try {
                 System.out.print("Enter log base path (AGV/Battery/Overall/System): ");
@@ -188,7 +794,14 @@ class LogManager {
                 File logFolder = new File("Logs/" + baseFolder + "/" + year + "/" + month + "/" + date + "/" + fileName);
 
                 if (!logFolder.exists()) {
-                    throw new InvalidPathException("File not found. Try again.");
+                    // Fall back to the compressed copy in the archive and print it
+                    File archived = new File("Logs/" + baseFolder + "/Archive/" + year + "/" + month + "/" + date + "/"
+                            + LogFileMover.archivedName(fileName));
+                    if (!archived.exists()) {
+                        throw new InvalidPathException("File not found. Try again.");
+                    }
+                    printArchived(archived);
+                    break;
                 }
 
                 // If everything is valid, open file and break the loop
@@ -204,12 +817,21 @@ class LogManager {
     }
 
 
+    // Print an archived (.gz) log to the console, decompressing as it reads
+    public static void printArchived(File archived) throws IOException {
+        System.out.println("=== " + archived.getPath() + " ===");
+        try (BufferedReader reader = LogFileMover.openArchived(archived.toPath())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                System.out.println(line);
+            }
+        }
+    }
+
     // ================================
     // Delete a log file by user input
     // ================================
-    public void deleteLog() throws InvalidPathException {
-        Scanner sc = new Scanner(System.in);
-
+    public void deleteLog(Scanner sc) throws InvalidPathException {
         while (true) {
             try {
                 System.out.print("Enter log base path (AGV/Battery/Overall/System): ");
@@ -246,6 +868,7 @@ class LogManager {
                 if (!logFile.delete()) {
                     throw new InvalidPathException("Failed to delete file: " + logFile.getAbsolutePath());
                 } else {
+                    LogIndex.indexFileFor(logFile).delete();
                     System.out.println("[LOG] File deleted successfully: " + logFile.getAbsolutePath());
                 }
 
@@ -262,9 +885,7 @@ class LogManager {
     // ================================
     // Move a log file to another folder
     // ================================
-    public void moveLog() {
-        Scanner sc = new Scanner(System.in);
-
+    public void moveLog(Scanner sc) {
         System.out.print("Enter log base path (e.g., AGV): ");
         String baseFolder = sc.nextLine();
 
@@ -296,709 +917,4429 @@ class LogManager {
 
         File destinationFile = new File(destinationFolder, fileName);
 
-        try (FileInputStream in = new FileInputStream(sourceFile);
-             FileOutputStream out = new FileOutputStream(destinationFile)) {
-
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = in.read(buffer)) > 0) {
-                out.write(buffer, 0, length);
+        try {
+            LogFileMover.move(sourceFile.toPath(), destinationFile.toPath());
+            File sourceIndex = LogIndex.indexFileFor(sourceFile);
+            if (sourceIndex.exists()) {
+                LogFileMover.move(sourceIndex.toPath(), LogIndex.indexFileFor(destinationFile).toPath());
             }
-
+            System.out.println("[LOG] File moved successfully to: " + destinationFile.getAbsolutePath());
         } catch (IOException e) {
             System.err.println("Error moving file: " + e.getMessage());
-            return;
         }
+    }
 
-// Delete after streams are fully closed
-        if (sourceFile.delete()) {
-            System.out.println("[LOG] File moved successfully to: " + destinationFile.getAbsolutePath());
-        } else {
-            System.out.println("[WARN] File copied but not deleted from source.");
+    // ================================
+    // Archive every log older than N days
+    // ================================
+    // Compresses the log_*.txt segments in Logs/<base>/yyyy/MMM/dd into Logs/<base>/Archive/yyyy/MMM/dd/*.gz
+    // for all bases and removes the originals, one task per file on a thread pool. Other files (index
+    // sidecars, the binary journals under Logs/Events) are left alone. Returns the number archived.
+    public static int archiveOlderThan(int days) throws InvalidPathException {
+        if (days < 0) throw new InvalidPathException("Days must not be negative.");
+
+        LocalDate cutoff = LocalDate.now().minusDays(days);
+        List<Path[]> moves = new ArrayList<>();
+        try {
+            Path logsRoot = Paths.get("Logs");
+            if (!Files.isDirectory(logsRoot)) return 0;
+            try (DirectoryStream<Path> bases = Files.newDirectoryStream(logsRoot, Files::isDirectory)) {
+                for (Path base : bases) {
+                    collectOldLogs(base, cutoff, moves);
+                }
+            }
+        } catch (IOException e) {
+            throw new InvalidPathException("I/O error while scanning logs: " + e.getMessage(), e);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (Path[] move : moves) {
+            results.add(pool.submit(() -> {
+                try {
+                    Files.createDirectories(move[1].getParent());
+                    LogFileMover.compressAndRemove(move[0], move[1]);
+                    Files.deleteIfExists(LogIndex.indexFileFor(move[0].toFile()).toPath());
+                    return true;
+                } catch (IOException e) {
+                    System.err.println("Error archiving " + move[0] + ": " + e.getMessage());
+                    return false;
+                }
+            }));
+        }
+        pool.shutdown();
+
+        int archived = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (result.get()) archived++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                System.err.println("Error archiving log: " + e.getCause().getMessage());
+            }
+        }
+        System.out.println("[LOG] Archived " + archived + " log file(s) older than " + days + " day(s).");
+        return archived;
+    }
+
+    // Queue (source, destination) pairs for every file in a date folder older than cutoff
+    private static void collectOldLogs(Path base, LocalDate cutoff, List<Path[]> moves) throws IOException {
+        try (DirectoryStream<Path> years = Files.newDirectoryStream(base, p -> p.getFileName().toString().matches("\\d{4}"))) {
+            for (Path year : years) {
+                try (DirectoryStream<Path> months = Files.newDirectoryStream(year, Files::isDirectory)) {
+                    for (Path month : months) {
+                        try (DirectoryStream<Path> dates = Files.newDirectoryStream(month, Files::isDirectory)) {
+                            for (Path date : dates) {
+                                LocalDate day = parseFolderDate(year, month, date);
+                                if (day == null || !day.isBefore(cutoff)) continue;
+
+                                Path archiveDir = base.resolve("Archive").resolve(year.getFileName())
+                                        .resolve(month.getFileName()).resolve(date.getFileName());
+                                try (DirectoryStream<Path> files = Files.newDirectoryStream(date, "log_*.txt")) {
+                                    for (Path file : files) {
+                                        if (!Files.isRegularFile(file)) continue;
+                                        String name = LogFileMover.archivedName(file.getFileName().toString());
+                                        moves.add(new Path[]{file, archiveDir.resolve(name)});
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // yyyy/MMM/dd folder names back to a date, null if they don't match the layout
+    private static LocalDate parseFolderDate(Path year, Path month, Path date) {
+        try {
+            return LocalDate.parse(year.getFileName() + "/" + month.getFileName() + "/" + date.getFileName(),
+                    FOLDER_DATE_FORMAT);
+        } catch (RuntimeException e) {
+            return null;
         }
     }
 }
 
 // ========================
-// Position Class
+// Log Router
 // ========================
-class Position {
-    private int row;
-    private int col;
+// Categories an event can be tagged with; every event also goes to the overall log
+enum LogCategory {
+    AGV, BATTERY, SYSTEM
+}
 
-    public Position(int row, int col) {
-        this.row = row;
-        this.col = col;
+class LogRouter {
+    private final LogManager agvLog;
+    private final LogManager batteryLog;
+    private final LogManager systemLog;
+    private final LogManager overallLog;
+    private volatile boolean console = true;   // stdout echo, off for headless runs
+    private volatile LongSupplier clock;       // epoch millis for line timestamps, null = wall clock
+    private volatile boolean journaledText = true;   // false: events in the binary journal skip the text logs
+
+    public LogRouter(LogManager agvLog, LogManager batteryLog, LogManager systemLog, LogManager overallLog) {
+        this.agvLog = agvLog;
+        this.batteryLog = batteryLog;
+        this.systemLog = systemLog;
+        this.overallLog = overallLog;
     }
 
-    public int getRow() {
-        return row;
+    // Format the message once and write it to the overall log and each tagged log,
+    // once per distinct log even when several categories share one (e.g. simulation runs)
+    public void log(String message, LogCategory... categories) {
+        long span = Tracer.start();
+        try {
+            LongSupplier stamp = clock;
+            String line = stamp == null ? LogManager.formatLine(message)
+                    : LogManager.formatLine(message, TimestampCache.at(stamp.getAsLong()));
+            overallLog.writeLine(line);
+            for (int i = 0; i < categories.length; i++) {
+                LogManager sink = sinkFor(categories[i]);
+                if (sink != overallLog && !writtenBefore(sink, categories, i)) {
+                    sink.writeLine(line);
+                }
+            }
+        } finally {
+            Tracer.end("LogRouter.log", "log", span);
+        }
     }
 
-    public int getCol() {
-        return col;
+    // Print to the console and log
+    public void event(String message, LogCategory... categories) {
+        print(message);
+        log(message, categories);
     }
 
-    public void setRow(int r) {
-        row = r;
+    // Print to the error stream and log, even on headless runs
+    public void error(String message, LogCategory... categories) {
+        System.err.println(message);
+        log(message, categories);
     }
 
-    public void setCol(int c) {
-        col = c;
+    // Text line of an event handed to the EventJournal (inJournal = it was recorded there).
+    // Built only when it is echoed or logged; logged when it isn't in the journal or when
+    // journaled events are also wanted as text. EventJournal.render() rebuilds it later.
+    public void journaled(boolean inJournal, Supplier<String> message, LogCategory... categories) {
+        boolean logged = !inJournal || journaledText;
+        if (!logged && !console) return;
+        String text = message.get();
+        print(text);
+        if (logged) log(text, categories);
     }
 
-    @Override
-    public String toString() {
-        return "[" + row + "," + col + "]";
+    public void setJournaledText(boolean enabled) {
+        journaledText = enabled;
+    }
+
+    // Console only, not logged
+    public void print(String message) {
+        if (console) System.out.println(message);
+    }
+
+    public void setConsole(boolean enabled) {
+        console = enabled;
+    }
+
+    // Stamp lines from another clock, e.g. the simulation's virtual time
+    public void setClock(LongSupplier epochMillis) {
+        clock = epochMillis;
+    }
+
+    private boolean writtenBefore(LogManager sink, LogCategory[] categories, int end) {
+        for (int i = 0; i < end; i++) {
+            if (sinkFor(categories[i]) == sink) return true;
+        }
+        return false;
+    }
+
+    private LogManager sinkFor(LogCategory category) {
+        switch (category) {
+            case AGV:
+                return agvLog;
+            case BATTERY:
+                return batteryLog;
+            default:
+                return systemLog;
+        }
     }
 }
 
 // ========================
-// Battery Class
+// Log Index
 // ========================
+// Each segment log_HH-mm-ss.txt has a sidecar log_HH-mm-ss.txt.idx holding one
+// (int second-of-day, long byte offset) entry about every INTERVAL_BYTES of text,
+// always at the start of a line. A query seeks to the last entry before its start time.
+class LogIndex {
+    public static final String SUFFIX = ".idx";
+    public static final int INTERVAL_BYTES = 4096;
+    private static final int ENTRY_BYTES = 12;
+
+    public static File indexFileFor(File segment) {
+        return new File(segment.getParentFile(), segment.getName() + SUFFIX);
+    }
 
-class BatteryException extends Exception {
-    public BatteryException(String message) {
-        super(message);
+    // Second of day from a line starting with "[HH:mm:ss", -1 if it doesn't
+    public static int parseSecondOfDay(CharSequence line) {
+        if (line.length() < 9 || line.charAt(0) != '[' || line.charAt(3) != ':' || line.charAt(6) != ':') return -1;
+        int h = twoDigits(line, 1), m = twoDigits(line, 4), sec = twoDigits(line, 7);
+        if (h < 0 || m < 0 || sec < 0) return -1;
+        return h * 3600 + m * 60 + sec;
+    }
+
+    private static int twoDigits(CharSequence s, int at) {
+        char a = s.charAt(at), b = s.charAt(at + 1);
+        if (a < '0' || a > '9' || b < '0' || b > '9') return -1;
+        return (a - '0') * 10 + (b - '0');
+    }
+
+    // Offset to start reading from so no line at or after fromSecond is skipped; 0 without an index
+    public static long seekOffset(File segment, int fromSecond) {
+        File idx = indexFileFor(segment);
+        if (!idx.exists()) return 0;
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)))) {
+            long entries = idx.length() / ENTRY_BYTES;
+            for (long i = 0; i < entries; i++) {
+                int second = in.readInt();
+                long entryOffset = in.readLong();
+                if (second >= fromSecond) break;
+                offset = entryOffset;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+        return offset;
     }
 }
 
-class Battery {
-    private double level;
+// ========================
+// Log Query
+// ========================
+// Headless search over Logs/<category>/yyyy/MMM/dd by time range, category, AGV id and box id.
+// Only the date folders inside the range are opened and each segment is entered at its index offset.
+// Lines pass through async per-log queues and the LogRouter fan-out, so a file is only roughly in
+// timestamp order: reading starts and stops ORDER_SLACK_SECONDS outside the range.
+class LogQuery {
+    private static final int ORDER_SLACK_SECONDS = 60;
+    private static final DateTimeFormatter FOLDER_FORMAT = DateTimeFormatter.ofPattern("yyyy/MMM/dd");
+    private static final DateTimeFormatter SEGMENT_FORMAT = DateTimeFormatter.ofPattern("'log_'HH-mm-ss'.txt'");
+
+    private LocalDateTime from = LocalDate.now().atStartOfDay();
+    private LocalDateTime to = LocalDateTime.now();
+    private String category = "Overall";
+    private String agvId;
+    private String boxId;
+    private boolean includeArchive;
+
+    public LogQuery from(LocalDateTime from) {
+        this.from = from;
+        return this;
+    }
 
-    public Battery() {
-        level = Math.random() * 20 + 80; // start with 80-100%
+    public LogQuery to(LocalDateTime to) {
+        this.to = to;
+        return this;
     }
 
-    public void discharge(double amount) {
-        try {
-            if (amount < 0) throw new BatteryException("Discharge amount cannot be negative!");
-            level = Math.max(0, level - amount);
-            System.out.println("[BATTERY] Discharged " + amount + "%. Current level: " + String.format("%.1f", level) + "%");
-        } catch (BatteryException e) {
-            System.err.println("[BATTERY ERROR] " + e.getMessage());
-        }
+    // Log base folder, one of categories(): AGV, Battery, System, Overall, Simulation, ...
+    public LogQuery category(String category) {
+        this.category = category;
+        return this;
     }
 
-    public void recharge() {
-        try {
-            if (level >= 100) throw new BatteryException("Battery is already full!");
-            System.out.println("[BATTERY] Charging started...");
-            CapstoneProject.batteryLog.log("[BATTERY] Charging started...");
-            CapstoneProject.overallLog.log("[BATTERY] Charging started...");
+    public LogQuery agv(String agvId) {
+        this.agvId = agvId;
+        return this;
+    }
+
+    public LogQuery box(String boxId) {
+        this.boxId = boxId;
+        return this;
+    }
 
-            while (level < 100) {
-                long start = System.currentTimeMillis();
+    // Also scan compressed archives (no index, read in full)
+    public LogQuery includeArchive(boolean includeArchive) {
+        this.includeArchive = includeArchive;
+        return this;
+    }
 
-                level = Math.min(level + 20, 100); // increase by 20
-                System.out.println("[BATTERY] Battery level: " + String.format("%.1f", level) + "%");
-                CapstoneProject.batteryLog.log("[BATTERY] Battery level: " + String.format("%.1f", level) + "%");
-                CapstoneProject.overallLog.log("[BATTERY] Battery level: " + String.format("%.1f", level) + "%");
+    // Stream every matching line, prefixed with its date, to the consumer; returns the match count
+    public int run(Consumer<String> out) throws InvalidPathException {
+        if (from.isAfter(to)) throw new InvalidPathException("Query start is after its end.");
+        List<String> categories = categories();
+        if (!categories.contains(category)) {
+            throw new InvalidPathException("Invalid category: " + category + ", logs exist for " + categories);
+        }
 
-                while (System.currentTimeMillis() - start < 1000) {
-                    // wait ~1 second
+        int matches = 0;
+        try {
+            for (LocalDate day = from.toLocalDate(); !day.isAfter(to.toLocalDate()); day = day.plusDays(1)) {
+                int fromSecond = day.equals(from.toLocalDate()) ? from.toLocalTime().toSecondOfDay() : 0;
+                int toSecond = day.equals(to.toLocalDate()) ? to.toLocalTime().toSecondOfDay() : 86399;
+                String folder = FOLDER_FORMAT.format(day);
+                File liveDir = new File("Logs/" + category + "/" + folder);
+
+                for (File segment : segmentsIn(liveDir, ".txt")) {
+                    LocalTime start = segmentStart(segment.getName(), ".txt");
+                    if (start != null && start.toSecondOfDay() > toSecond + ORDER_SLACK_SECONDS) continue;
+                    long offset = LogIndex.seekOffset(segment, fromSecond - ORDER_SLACK_SECONDS);
+                    try (FileInputStream in = new FileInputStream(segment)) {
+                        in.getChannel().position(offset);
+                        matches += scan(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)),
+                                day, fromSecond, toSecond, out);
+                    }
+                }
+                if (includeArchive) {
+                    File archiveDir = new File("Logs/" + category + "/Archive/" + folder);
+                    String suffix = ".txt" + LogFileMover.ARCHIVE_SUFFIX;
+                    for (File archived : segmentsIn(archiveDir, suffix)) {
+                        // archiveLog() keeps the live file, which holds everything the archive does
+                        String name = archived.getName();
+                        if (new File(liveDir, name.substring(0, name.length() - LogFileMover.ARCHIVE_SUFFIX.length())).exists()) continue;
+                        LocalTime start = segmentStart(name, suffix);
+                        if (start != null && start.toSecondOfDay() > toSecond + ORDER_SLACK_SECONDS) continue;
+                        try (BufferedReader reader = LogFileMover.openArchived(archived.toPath())) {
+                            matches += scan(reader, day, fromSecond, toSecond, out);
+                        }
+                    }
                 }
             }
-            System.out.println("[BATTERY] Battery fully charged!");
-            CapstoneProject.batteryLog.log("[BATTERY] Battery fully charged!");
-            CapstoneProject.overallLog.log("[BATTERY] Battery fully charged!");
-
-        } catch (BatteryException e) {
-            System.err.println("[BATTERY ERROR] " + e.getMessage());
+        } catch (IOException e) {
+            throw new InvalidPathException("I/O error while querying logs: " + e.getMessage(), e);
         }
+        return matches;
     }
 
-    public boolean isLow() {
-        return level < 20;
+    private int scan(BufferedReader reader, LocalDate day, int fromSecond, int toSecond, Consumer<String> out)
+            throws IOException {
+        int matches = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int second = LogIndex.parseSecondOfDay(line);
+            if (second > toSecond + ORDER_SLACK_SECONDS) break;
+            if (second < fromSecond || second > toSecond) continue;
+            if (agvId != null && !mentions(line, "AGV#", agvId)) continue;
+            if (boxId != null && !mentions(line, "Box#", boxId)) continue;
+            out.accept(day + " " + line);
+            matches++;
+        }
+        return matches;
     }
 
-    public String getLevelString() {
-        return String.format("%.1f", level);
+    // "AGV#1" must not match "AGV#12"
+    private static boolean mentions(String line, String tag, String id) {
+        String needle = tag + id;
+        int at = line.indexOf(needle);
+        while (at >= 0) {
+            int end = at + needle.length();
+            if (end == line.length() || !Character.isLetterOrDigit(line.charAt(end))) return true;
+            at = line.indexOf(needle, at + 1);
+        }
+        return false;
     }
-}
-
-// ========================
-// Abstract Resource
-// ========================
-abstract class Resource {
-    protected String id;
-    protected Position position;
 
-    public String getId() {
-        return id;
+    // Segment files in a date folder, oldest first
+    private static List<File> segmentsIn(File folder, String suffix) {
+        List<File> segments = new ArrayList<>();
+        File[] files = folder.listFiles((dir, name) -> name.startsWith("log_") && name.endsWith(suffix));
+        if (files != null) {
+            Collections.addAll(segments, files);
+            segments.sort((a, b) -> a.getName().compareTo(b.getName()));
+        }
+        return segments;
     }
 
-    public Position getPosition() {
-        return position;
+    private static LocalTime segmentStart(String name, String suffix) {
+        try {
+            return LocalTime.parse(name.substring(0, name.length() - suffix.length()) + ".txt", SEGMENT_FORMAT);
+        } catch (RuntimeException e) {
+            return null;
+        }
     }
 
-    protected abstract void displayInfo();
-}
+    // Text log folders under Logs, i.e. every LogManager base that has written something;
+    // Events holds the binary EventJournal files and is not a text log
+    public static List<String> categories() {
+        List<String> names = new ArrayList<>();
+        File[] folders = new File("Logs").listFiles(File::isDirectory);
+        if (folders == null) return names;
+        for (File folder : folders) {
+            if (!folder.getName().equals("Events")) names.add(folder.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
 
-// ========================
-// USER-DEFINED EXCEPTION
-// ========================
-class AGVException extends Exception {
-    public AGVException(String message) {
-        super(message);  // for simple messages
+    // CLI: query [--from yyyy-MM-ddTHH:mm:ss] [--to ...] [--category AGV|Battery|System|Overall|Simulation|...]
+    //            [--agv ID] [--box ID] [--archive]
+    public static void runCli(String[] args) {
+        LogQuery query = new LogQuery();
+        try {
+            for (int i = 1; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--archive")) {
+                    query.includeArchive(true);
+                    continue;
+                }
+                if (i + 1 >= args.length) throw new InvalidPathException("Missing value for " + option);
+                String value = args[++i];
+                switch (option) {
+                    case "--from":
+                        query.from(LocalDateTime.parse(value));
+                        break;
+                    case "--to":
+                        query.to(LocalDateTime.parse(value));
+                        break;
+                    case "--category":
+                        query.category(value);
+                        break;
+                    case "--agv":
+                        query.agv(value);
+                        break;
+                    case "--box":
+                        query.box(value);
+                        break;
+                    default:
+                        throw new InvalidPathException("Unknown option " + option);
+                }
+            }
+            long start = System.nanoTime();
+            int matches = query.run(System.out::println);
+            System.out.println("[QUERY] " + matches + " match(es) in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (InvalidPathException | DateTimeParseException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+        }
     }
 }
 
 // ========================
-// AGV Class
+// Binary Event Journal
 // ========================
-class AGV extends Resource {
-    private Battery battery;
-    private Box carriedBox;
-    private boolean isActive;
+enum EventType {
+    AGV_MOVED, BOX_PICKED_UP, BOX_STORED, BOX_RETRIEVED, CHARGE_ASSIGNED, CHARGE_COMPLETED
+}
 
-    public AGV(String id) {
-        this.id = id;
-        this.battery = new Battery();
-        this.isActive = false;
-        this.position = new Position(10, 10); // random point //todolist //
+// Fixed 64-byte little-endian records written next to the text logs in
+// Logs/Events/yyyy/MMM/dd/events_HH-mm-ss.bin:
+//   0 type(byte) | 4 battery(float, NaN = n/a) | 8 timestamp millis(long)
+//   16 from row,col | 24 to row,col (ints, NO_POS = n/a) | 32 AGV id (8 bytes) | 40 box id (24 bytes)
+// Ids are UTF-8 and zero-padded; an event whose id does not fit its field is not journaled
+// (record() returns false, so the caller keeps its text line instead).
+class EventJournal {
+    public static final int RECORD_BYTES = 64;
+    public static final int NO_POS = Integer.MIN_VALUE;
+    private static final int AGV_ID_BYTES = 8;
+    private static final int BOX_ID_BYTES = 24;
+    private static final int BUFFER_RECORDS = 1024;
+    private static final DateTimeFormatter FOLDER_FORMAT = DateTimeFormatter.ofPattern("yyyy/MMM/dd");
+    private static final DateTimeFormatter FILE_FORMAT = DateTimeFormatter.ofPattern("'events_'HH-mm-ss'.bin'");
+
+    private FileChannel channel;     // null = journal disabled, record() does nothing
+    private File file;
+    private final ByteBuffer buffer;
+    private final AtomicLong rejected = new AtomicLong();   // events with an id too long for its field
+
+    private EventJournal(FileChannel channel, File file) {
+        this.channel = channel;
+        this.file = file;
+        this.buffer = channel == null ? null
+                : ByteBuffer.allocateDirect(RECORD_BYTES * BUFFER_RECORDS).order(ByteOrder.LITTLE_ENDIAN);
     }
 
-    public Battery getBattery() {
-        return battery;
+    // Journal that ignores everything, used until open() is called
+    public static EventJournal disabled() {
+        return new EventJournal(null, null);
     }
 
-    public void moveTo(Position target) {
+    public static EventJournal open() throws InvalidPathException {
+        ZonedDateTime now = ZonedDateTime.now();
+        File folder = new File("Logs/Events/" + FOLDER_FORMAT.format(now));
+        if (!folder.exists() && !folder.mkdirs() && !folder.exists()) {
+            throw new InvalidPathException("Failed to create folder path: " + folder.getPath());
+        }
+        File journal = new File(folder, FILE_FORMAT.format(now));
         try {
-            if (target == null) {
-                throw new AGVException("Target position cannot be null!");
-            }
-            System.out.println("[AGV] AGV#" + id + " moved from " + position + " to " + target);
-            CapstoneProject.agvLog.log("[AGV] AGV#" + id + " moved from " + position + " to " + target);
-            CapstoneProject.systemLog.log("[AGV] AGV#" + id + " moved from " + position + " to " + target);
-            CapstoneProject.overallLog.log("[AGV] AGV#" + id + " moved from " + position + " to " + target);
-            this.position = target;
-            battery.discharge(5);
-        } catch (AGVException e) {
-            System.err.println("[ERROR] AGV#" + id + ": " + e.getMessage());
-            CapstoneProject.systemLog.log("[ERROR] AGV#" + id + ": " + e.getMessage());
-            CapstoneProject.overallLog.log("[ERROR] AGV#" + id + ": " + e.getMessage());
+            FileChannel channel = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            return new EventJournal(channel, journal);
+        } catch (IOException e) {
+            throw new InvalidPathException("I/O error while opening event journal: " + e.getMessage(), e);
         }
     }
 
-    public void pickUpBox(Box box) {
-        try {
-            if (box == null) {
-                throw new AGVException("Cannot pick up a null box!");
+    public File getFile() {
+        return file;
+    }
+
+    // true when the event was journaled; false when the journal is off or an id doesn't fit
+    public boolean record(EventType type, String agvId, String boxId, Position from, Position to, double battery) {
+        if (channel == null) return false;
+        byte[] agv = idBytes(agvId, AGV_ID_BYTES);
+        byte[] box = idBytes(boxId, BOX_ID_BYTES);
+        if (agv == null || box == null) {
+            if (rejected.getAndIncrement() == 0) {
+                System.err.println("[WARN] Event ids over " + AGV_ID_BYTES + "/" + BOX_ID_BYTES
+                        + " UTF-8 bytes (AGV/box) are not journaled, e.g. " + (agv == null ? agvId : boxId));
             }
-            carriedBox = box;
-            System.out.println("[AGV] AGV#" + id + " picked up Box#" + box.getId());
-            CapstoneProject.agvLog.log("[AGV] AGV#" + id + " picked up Box#" + box.getId());
-            CapstoneProject.systemLog.log("[AGV] AGV#" + id + " picked up Box#" + box.getId());
-            CapstoneProject.overallLog.log("[AGV] AGV#" + id + " picked up Box#" + box.getId());
-        } catch (AGVException e) {
-            System.err.println("[ERROR] AGV#" + id + ": " + e.getMessage());
-            CapstoneProject.systemLog.log("[ERROR] AGV#" + id + ": " + e.getMessage());
-            CapstoneProject.overallLog.log("[ERROR] AGV#" + id + ": " + e.getMessage());
+            return false;
         }
+        synchronized (this) {
+            if (channel == null) return false;
+            int start = buffer.position();
+            buffer.put(start, (byte) type.ordinal());
+            buffer.putFloat(start + 4, (float) battery);
+            buffer.putLong(start + 8, System.currentTimeMillis());
+            buffer.putInt(start + 16, from == null ? NO_POS : from.getRow());
+            buffer.putInt(start + 20, from == null ? NO_POS : from.getCol());
+            buffer.putInt(start + 24, to == null ? NO_POS : to.getRow());
+            buffer.putInt(start + 28, to == null ? NO_POS : to.getCol());
+            putId(start + 32, AGV_ID_BYTES, agv);
+            putId(start + 40, BOX_ID_BYTES, box);
+            buffer.position(start + RECORD_BYTES);
+            if (!buffer.hasRemaining()) drain();
+            return true;
+        }
+    }
+
+    // UTF-8 bytes of the id, null when they don't fit the field (never cut mid-character)
+    private static byte[] idBytes(String id, int width) {
+        if (id == null) return new byte[0];
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= width ? bytes : null;
+    }
+
+    private void putId(int at, int width, byte[] bytes) {
+        for (int i = 0; i < width; i++) {
+            buffer.put(at + i, i < bytes.length ? bytes[i] : 0);
+        }
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
     }
 
-    public void dropBox(StorageArea area) {
+    private void drain() {
+        buffer.flip();
         try {
-            if (carriedBox == null) {
-                throw new AGVException("No box to drop!");
-            }
-            if (area == null) {
-                throw new AGVException("Storage area is null!");
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
             }
-
-            area.storeBox(carriedBox);
-            carriedBox = null;
-        } catch (AGVException e) {
-            System.err.println("[ERROR] " + e.getMessage());
-            CapstoneProject.systemLog.log("[ERROR] " + e.getMessage());
-            CapstoneProject.overallLog.log("[ERROR] " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error writing event journal: " + e.getMessage());
         }
+        buffer.clear();
     }
 
-    public void setActive(boolean state) {
-        isActive = state;
+    public synchronized void flush() {
+        if (channel != null) drain();
     }
 
-    @Override
-    protected void displayInfo() {
-        System.out.println("[INFO] AGV#" + id + " | Battery: " + battery.getLevelString() + "% | Active: " + isActive);
-        CapstoneProject.agvLog.log("[INFO] AGV#" + id + " | Battery: " + battery.getLevelString() + "% | Active: " + isActive);
-        CapstoneProject.batteryLog.log("[INFO] AGV#" + id + " | Battery: " + battery.getLevelString() + "% | Active: " + isActive);
-        CapstoneProject.overallLog.log("[INFO] AGV#" + id + " | Battery: " + battery.getLevelString() + "% | Active: " + isActive);
+    public synchronized void close() {
+        if (channel == null) return;
+        drain();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing event journal: " + e.getMessage());
+        }
+        channel = null;
+        if (rejected.get() > 0) {
+            System.err.println("[EVENTS] " + rejected.get() + " event(s) with over-long ids kept in the text logs only.");
+        }
     }
-}
 
-// ========================
-// USER-DEFINED EXCEPTION
-// ========================
-class BoxException extends Exception {
-    public BoxException(String message) {
-        super(message);
+    // Read-only view of one record; the same instance is moved along the mapped file
+    static class EventRecord {
+        private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+        private static final EventType[] TYPES = EventType.values();
+
+        private ByteBuffer data;
+        private int at;
+
+        public EventType getType() {
+            return TYPES[data.get(at)];
+        }
+
+        public float getBattery() {
+            return data.getFloat(at + 4);
+        }
+
+        public long getTimestamp() {
+            return data.getLong(at + 8);
+        }
+
+        public int getFromRow() {
+            return data.getInt(at + 16);
+        }
+
+        public int getFromCol() {
+            return data.getInt(at + 20);
+        }
+
+        public int getToRow() {
+            return data.getInt(at + 24);
+        }
+
+        public int getToCol() {
+            return data.getInt(at + 28);
+        }
+
+        public String getAgvId() {
+            return readId(at + 32, AGV_ID_BYTES);
+        }
+
+        public String getBoxId() {
+            return readId(at + 40, BOX_ID_BYTES);
+        }
+
+        private String readId(int from, int width) {
+            int length = 0;
+            while (length < width && data.get(from + length) != 0) length++;
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) bytes[i] = data.get(from + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Text log view of the record, rendered only when asked for
+        public String render() {
+            String time = TIME_FORMAT.format(Instant.ofEpochMilli(getTimestamp()).atZone(ZoneId.systemDefault()));
+            String from = "[" + getFromRow() + "," + getFromCol() + "]";
+            String to = "[" + getToRow() + "," + getToCol() + "]";
+            switch (getType()) {
+                case AGV_MOVED:
+                    return "[" + time + "] [AGV] AGV#" + getAgvId() + " moved from " + from + " to " + to;
+                case BOX_PICKED_UP:
+                    return "[" + time + "] [AGV] AGV#" + getAgvId() + " picked up Box#" + getBoxId();
+                case BOX_STORED:
+                    return "[" + time + "] [STORAGE] Stored Box#" + getBoxId() + " at " + to;
+                case BOX_RETRIEVED:
+                    return "[" + time + "] [RETRIEVE] Retrieved Box#" + getBoxId() + " from " + from;
+                case CHARGE_ASSIGNED:
+                    return "[" + time + "] [AGV] AGV#" + getAgvId() + " assigned to charging at " + to;
+                default:
+                    return "[" + time + "] [AGV] AGV#" + getAgvId() + " charged to "
+                            + String.format("%.1f", getBattery()) + "%";
+            }
+        }
     }
-}
 
-// ========================
-// Box Class
-// ========================
-class Box extends Resource {
-    private String weight;
-    private String content;
+    // Map a journal file and hand every record to the visitor; returns the record count
+    public static long replay(File journal, Consumer<EventRecord> visitor) throws IOException {
+        try (FileChannel in = FileChannel.open(journal.toPath(), StandardOpenOption.READ)) {
+            long records = in.size() / RECORD_BYTES;
+            EventRecord record = new EventRecord();
+            long done = 0;
+            // Map in chunks so files over 2 GB still work
+            long chunkRecords = Integer.MAX_VALUE / RECORD_BYTES;
+            while (done < records) {
+                long count = Math.min(chunkRecords, records - done);
+                MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, done * RECORD_BYTES, count * RECORD_BYTES);
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                record.data = map;
+                for (int i = 0; i < count; i++) {
+                    record.at = i * RECORD_BYTES;
+                    visitor.accept(record);
+                }
+                done += count;
+            }
+            return records;
+        }
+    }
 
-    public Box(String id, String weight, String content) {
-        this.id = id;
-        this.weight = weight;
-        this.content = content;
-        this.position = new Position(-5, -5);
+    // Number of records per EventType, indexed by ordinal
+    public static long[] countByType(File journal) throws IOException {
+        long[] counts = new long[EventType.values().length];
+        replay(journal, record -> counts[record.getType().ordinal()]++);
+        return counts;
     }
 
-    public void setPosition(int row, int col) {
+    // CLI: events <file.bin> [--text]
+    public static void runCli(String[] args) {
+        if (args.length < 2) {
+            System.err.println("[ERROR] Usage: events <events_HH-mm-ss.bin> [--text]");
+            return;
+        }
+        File journal = new File(args[1]);
+        boolean text = args.length > 2 && args[2].equals("--text");
         try {
-            if (position == null) {
-                throw new BoxException("Position object is null!");
+            long start = System.nanoTime();
+            // one pass: count every record and render it when --text is given
+            long[] counts = new long[EventType.values().length];
+            replay(journal, record -> {
+                counts[record.getType().ordinal()]++;
+                if (text) System.out.println(record.render());
+            });
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            for (EventType type : EventType.values()) {
+                System.out.println("[EVENTS] " + type + ": " + counts[type.ordinal()]);
             }
-            position.setRow(row);
-            position.setCol(col);
-        } catch (BoxException e) {
+            System.out.println("[EVENTS] Read " + journal.length() / RECORD_BYTES + " record(s) in " + elapsed + " ms");
+        } catch (IOException e) {
             System.err.println("[ERROR] " + e.getMessage());
         }
     }
+}
+
+// ========================
+// Position Class
+// ========================
+class Position {
+    private int row;
+    private int col;
+
+    public Position(int row, int col) {
+        this.row = row;
+        this.col = col;
+    }
 
     public int getRow() {
-        return position.getRow();
+        return row;
     }
 
-    public int getColumn() {
-        return position.getCol();
+    public int getCol() {
+        return col;
     }
 
-    @Override
-    public String toString() {
-        return "Box ID: " + id + ", Weight: " + weight + " kg, Content:" + content;
+    public void setRow(int r) {
+        row = r;
+    }
+
+    public void setCol(int c) {
+        col = c;
     }
 
     @Override
-    protected void displayInfo() {
-        System.out.println("Box#" + id + " | " + content + " | Storage Pos: " + position);
+    public String toString() {
+        return "[" + row + "," + col + "]";
     }
 }
 
 // ========================
-// USER-DEFINED EXCEPTION
+// Operation Outcome
 // ========================
-class StorageAreaException extends Exception {
-    public StorageAreaException(String message) {
-        super(message);
+// Result of a storage, AGV or battery operation. Expected misses (slot taken, nothing stored,
+// area full) are reported with these codes instead of exceptions, so a busy warehouse doesn't
+// pay for an exception on every rejected request.
+enum Outcome {
+    OK,
+    OCCUPIED,       // slot already holds a box
+    DUPLICATE,      // a box with this ID is stored already
+    OUT_OF_BOUNDS,  // position outside the storage area
+    EMPTY,          // no box where one was expected
+    FULL,           // no empty slot left
+    NO_ROUTE,       // the planner found no way there
+    NOT_DURABLE,    // the storage journal failed, the change was undone
+    INVALID;        // missing or negative argument
+
+    public boolean ok() {
+        return this == OK;
+    }
+}
+
+// Base of the exceptions for expected failures (a process that cannot finish its job).
+// They only carry a message, so no stack trace is captured when one is created.
+abstract class WarehouseException extends Exception {
+    protected WarehouseException(String message) {
+        super(message, null, false, false);
     }
 }
 
 // ========================
-// StorageArea Class
+// Grid Path Planner
 // ========================
-class StorageArea {
-    private Box[][] shelves;
-    private int rows, cols;
+// Routes AGVs over the warehouse floor: the storage area, a one-cell aisle around it and
+// every waypoint passed in (pickup, drop-off, stations, AGV home), 4-way moves of one cell
+// each. AGVs drive under the shelves, so only cells marked with block() are in the way.
+// Without blocked cells a route is exactly as long as the Manhattan distance and nothing is
+// searched. With blocked cells a query uses the BFS distance field of one endpoint (the
+// distance from every floor cell to it); fields are kept in an LRU cache, so queries
+// towards the same pickup point, station or slot cost one array lookup after the first.
+class GridPlanner {
+    private static final long CACHE_BUDGET_CELLS = 16_000_000;  // ~64 MB of cached fields
+
+    private final int minRow, minCol, height, width;
+    private final BitSet blocked = new BitSet();
+    private volatile int blockedCells;   // read without the lock on every query
+    private final Map<Integer, int[]> fields;   // target cell -> distance of every cell to it
+
+    public GridPlanner(int rows, int cols, Position... waypoints) {
+        int top = -1, left = -1, bottom = rows, right = cols;
+        for (Position p : waypoints) {
+            top = Math.min(top, p.getRow());
+            left = Math.min(left, p.getCol());
+            bottom = Math.max(bottom, p.getRow());
+            right = Math.max(right, p.getCol());
+        }
+        minRow = top;
+        minCol = left;
+        height = bottom - top + 1;
+        width = right - left + 1;
+        int maxFields = (int) Math.max(4, Math.min(4096, CACHE_BUDGET_CELLS / ((long) height * width)));
+        fields = new LinkedHashMap<Integer, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+                return size() > maxFields;
+            }
+        };
+    }
 
-    public StorageArea(int rows, int cols) {
-        this.rows = rows;
-        this.cols = cols;
-        shelves = new Box[rows][cols];
+    // Mark a floor cell as not drivable (pillar, out-of-service cell); cells off the floor are ignored
+    public synchronized void block(int row, int col) {
+        if (row < minRow || col < minCol || row >= minRow + height || col >= minCol + width) return;
+        int cell = cell(row, col);
+        if (blocked.get(cell)) return;
+        blocked.set(cell);
+        blockedCells++;
+        fields.clear();
     }
 
-    // Find first empty slot in shelves
-    public Position findEmptySlot() {
-        try {
-            for (int r = 0; r < rows; r++) {
-                for (int c = 0; c < cols; c++) {
-                    if (shelves[r][c] == null) {
-                        return new Position(r, c);
-                    }
-                }
-            }
-            throw new StorageAreaException("No empty slot available.");
-        } catch (StorageAreaException e) {
-            System.err.println("[ERROR] " + e.getMessage());
-            return null; //full
+    // Floor for a storage area of rows x cols with its pickup, drop-off, stations and AGV home
+    public static GridPlanner forWarehouse(int rows, int cols, List<ChargingStation> stations) {
+        List<Position> waypoints = new ArrayList<>();
+        waypoints.add(Process.PICKUP_POS);
+        waypoints.add(Process.DROPOFF_POS);
+        waypoints.add(AGV.home());
+        for (ChargingStation station : stations) {
+            waypoints.add(station.getPosition());
         }
+        return new GridPlanner(rows, cols, waypoints.toArray(new Position[0]));
     }
 
-    // Find box position by ID
-    public Position findBoxById(String id) {
-        for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols; c++) {
-                if (shelves[r][c] != null && shelves[r][c].getId().equals(id)) {
-                    return new Position(r, c);
-                }
-            }
+    public int blockedCount() {
+        return blockedCells;
+    }
+
+    // Cells to drive from one position to the other, -1 when there is no route
+    public int distance(Position from, Position to) {
+        int a = clamp(from), b = clamp(to);
+        int offset = offFloor(from) + offFloor(to);
+        if (blockedCount() == 0) {
+            return offset + Math.abs(a / width - b / width) + Math.abs(a % width - b % width);
         }
-        return null; // not found
+        int[] field = cachedField(a);
+        int cells = field != null ? field[b] : field(b)[a];
+        return cells < 0 ? -1 : offset + cells;
     }
 
-    public Box getBoxAt(int row, int col) {
-        try {
-            if (row >= 0 && col >= 0 && row < shelves.length && col < shelves[0].length) {
-                return shelves[row][col];
+    public long travelMillis(Position from, Position to) {
+        int cells = distance(from, to);
+        return cells < 0 ? Long.MAX_VALUE : cells * AGV.MILLIS_PER_CELL;
+    }
+
+    // Cells visited on the way, start excluded and target included; null when there is no route.
+    // Positions off the floor are entered and left through their nearest floor cell.
+    public List<Position> route(Position from, Position to) {
+        int a = clamp(from), b = clamp(to);
+        List<Position> path = new ArrayList<>();
+        steps(from.getRow(), from.getCol(), a / width + minRow, a % width + minCol, path);
+        if (blockedCount() == 0) {
+            steps(a / width + minRow, a % width + minCol, b / width + minRow, b % width + minCol, path);
+        } else {
+            int[] field = field(b);
+            if (field[a] < 0) return null;
+            int at = a;
+            while (at != b) {
+                at = downhill(field, at);
+                path.add(new Position(at / width + minRow, at % width + minCol));
             }
-            throw new StorageAreaException("Invalid position [" + row + "," + col + "]");
-        } catch (StorageAreaException e) {
-            System.err.println("[ERROR] " + e.getMessage());
-            return null; //not found
         }
+        steps(b / width + minRow, b % width + minCol, to.getRow(), to.getCol(), path);
+        return path;
+    }
+
+    // Straight line, rows first then columns: start excluded, end included
+    private static void steps(int row, int col, int toRow, int toCol, List<Position> path) {
+        while (row != toRow) {
+            row += Integer.signum(toRow - row);
+            path.add(new Position(row, col));
+        }
+        while (col != toCol) {
+            col += Integer.signum(toCol - col);
+            path.add(new Position(row, col));
+        }
+    }
+
+    private int downhill(int[] field, int at) {
+        int row = at / width, col = at % width;
+        if (row > 0 && field[at - width] == field[at] - 1) return at - width;
+        if (row < height - 1 && field[at + width] == field[at] - 1) return at + width;
+        if (col > 0 && field[at - 1] == field[at] - 1) return at - 1;
+        return at + 1;
+    }
+
+    private synchronized int[] cachedField(int target) {
+        return fields.get(target);
+    }
+
+    private synchronized int[] field(int target) {
+        int[] field = fields.get(target);
+        if (field == null) {
+            field = bfs(target);
+            fields.put(target, field);
+        }
+        return field;
+    }
+
+    // Distance of every floor cell to target, -1 where it can't be reached
+    private int[] bfs(int target) {
+        int[] dist = new int[height * width];
+        Arrays.fill(dist, -1);
+        if (blocked.get(target)) return dist;
+        int[] queue = new int[dist.length];
+        int head = 0, tail = 0;
+        dist[target] = 0;
+        queue[tail++] = target;
+        while (head < tail) {
+            int at = queue[head++];
+            int row = at / width, col = at % width, next = dist[at] + 1;
+            if (row > 0 && visit(dist, at - width, next)) queue[tail++] = at - width;
+            if (row < height - 1 && visit(dist, at + width, next)) queue[tail++] = at + width;
+            if (col > 0 && visit(dist, at - 1, next)) queue[tail++] = at - 1;
+            if (col < width - 1 && visit(dist, at + 1, next)) queue[tail++] = at + 1;
+        }
+        return dist;
+    }
+
+    private boolean visit(int[] dist, int cell, int value) {
+        if (dist[cell] >= 0 || blocked.get(cell)) return false;
+        dist[cell] = value;
+        return true;
+    }
+
+    private int cell(int row, int col) {
+        return (row - minRow) * width + (col - minCol);
+    }
+
+    // Nearest floor cell to p
+    private int clamp(Position p) {
+        int row = Math.max(minRow, Math.min(minRow + height - 1, p.getRow()));
+        int col = Math.max(minCol, Math.min(minCol + width - 1, p.getCol()));
+        return cell(row, col);
+    }
+
+    private int offFloor(Position p) {
+        int row = Math.max(minRow, Math.min(minRow + height - 1, p.getRow()));
+        int col = Math.max(minCol, Math.min(minCol + width - 1, p.getCol()));
+        return Math.abs(p.getRow() - row) + Math.abs(p.getCol() - col);
+    }
+}
+
+// ========================
+// Task Scheduler
+// ========================
+// Where timed work (charging steps, ...) is scheduled instead of sleeping on the caller's thread
+interface TaskScheduler {
+    long now();   // milliseconds
+
+    // Fine-grained clock for measuring how long something took
+    default long nanoTime() {
+        return System.nanoTime();
+    }
+
+    void schedule(long delayMillis, Runnable task);
+
+    // Time passing for the caller, e.g. an AGV driving; interactive moves are instant
+    default void advance(long millis) {
+    }
+
+    // Block until the future completes
+    default void await(CompletableFuture<?> future) {
+        future.join();
+    }
+
+    // Run body as its own process, alongside the caller
+    void spawn(String name, Runnable body);
+
+    void shutdown();
+}
+
+// Wall-clock scheduler on a small pool of daemon threads
+class RealTimeScheduler implements TaskScheduler {
+    private ScheduledExecutorService executor;
+    private ExecutorService workers;
+
+    private synchronized ScheduledExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newScheduledThreadPool(2, task -> {
+                Thread thread = new Thread(task, "scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void schedule(long delayMillis, Runnable task) {
+        executor().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // One thread per process, virtual when the JVM has them
+    @Override
+    public synchronized void spawn(String name, Runnable body) {
+        if (workers == null) workers = ProcessExecutor.create();
+        workers.execute(() -> {
+            Thread.currentThread().setName(name);
+            body.run();
+        });
+    }
+
+    // Pending steps are dropped so nothing logs after the logs are closed
+    @Override
+    public synchronized void shutdown() {
+        if (executor != null) executor.shutdownNow();
+        if (workers != null) workers.shutdownNow();
+        executor = null;
+        workers = null;
+    }
+}
+
+// Discrete-event clock for simulation runs. Time only moves when the next event is taken
+// off the queue, so a shift of many hours runs as fast as the events can be processed.
+// Processes (Storing, Retrieving, ...) run unchanged on their own virtual threads, but only one
+// thread runs at a time: advance() and await() park the process and hand control back
+// to the event loop, which resumes it from a scheduled event. Events at the same time run
+// in the order they were scheduled, so a run is deterministic for a given seed.
+class VirtualTimeScheduler implements TaskScheduler {
+    private static final class Pending {
+        final long time;
+        final long seq;
+        final Runnable task;
+
+        Pending(long time, long seq, Runnable task) {
+            this.time = time;
+            this.seq = seq;
+            this.task = task;
+        }
+    }
+
+    private final PriorityQueue<Pending> queue = new PriorityQueue<>(
+            Comparator.comparingLong((Pending p) -> p.time).thenComparingLong(p -> p.seq));
+    private final Semaphore loop = new Semaphore(0);                   // released when a process parks or ends
+    private final ThreadLocal<Semaphore> process = new ThreadLocal<>(); // set on process threads only
+    private final List<Thread> processes = new ArrayList<>();
+    private long now;
+    private long seq;
+    private RuntimeException failure;
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    @Override
+    public long nanoTime() {
+        return now * 1_000_000;
+    }
+
+    @Override
+    public void schedule(long delayMillis, Runnable task) {
+        queue.add(new Pending(now + Math.max(0, delayMillis), seq++, task));
+    }
+
+    // Start a process at the current time
+    @Override
+    public void spawn(String name, Runnable body) {
+        schedule(0, () -> {
+            Semaphore wake = new Semaphore(0);
+            Thread thread = Thread.ofVirtual().name(name).unstarted(() -> {
+                process.set(wake);
+                try {
+                    wake.acquire();
+                    body.run();
+                } catch (InterruptedException | CancellationException e) {
+                    return; // shut down while parked
+                } catch (RuntimeException e) {
+                    failure = e;
+                } finally {
+                    loop.release();
+                }
+            });
+            processes.removeIf(t -> !t.isAlive());
+            processes.add(thread);
+            thread.start();
+            resume(wake);
+        });
+    }
+
+    @Override
+    public void advance(long millis) {
+        Semaphore wake = process.get();
+        if (wake == null) {
+            runUntil(now + millis);
+            return;
+        }
+        schedule(millis, () -> resume(wake));
+        park(wake);
+    }
+
+    @Override
+    public void await(CompletableFuture<?> future) {
+        Semaphore wake = process.get();
+        if (wake == null) {
+            while (!future.isDone() && step()) {
+            }
+            if (!future.isDone()) throw new IllegalStateException("No events left to complete the awaited task");
+        } else if (!future.isDone()) {
+            future.whenComplete((result, error) -> schedule(0, () -> resume(wake)));
+            park(wake);
+        }
+        future.join();
+    }
+
+    // Run every event up to and including time, then move the clock to it
+    public void runUntil(long time) {
+        while (!queue.isEmpty() && queue.peek().time <= time) {
+            step();
+        }
+        now = Math.max(now, time);
+    }
+
+    // Run until nothing is left to do
+    public void run() {
+        while (step()) {
+        }
+    }
+
+    private boolean step() {
+        Pending next = queue.poll();
+        if (next == null) return false;
+        now = next.time;
+        next.task.run();
+        if (failure != null) {
+            RuntimeException e = failure;
+            failure = null;
+            throw e;
+        }
+        return true;
+    }
+
+    // Event loop side: let the process run until it parks again or ends
+    private void resume(Semaphore wake) {
+        wake.release();
+        loop.acquireUninterruptibly();
+    }
+
+    // Process side: give control back to the event loop and wait to be resumed
+    private void park(Semaphore wake) {
+        loop.release();
+        try {
+            wake.acquire();
+        } catch (InterruptedException e) {
+            throw new CancellationException("Simulation stopped");
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        queue.clear();
+        for (Thread thread : processes) {
+            thread.interrupt();
+        }
+        processes.clear();
+    }
+}
+
+// Thread-per-process executor: every process gets its own virtual thread. Waits that can
+// take long (journal group commit, charging station drive) use ReentrantLock/Condition, so a
+// parked process unmounts from its carrier; the remaining monitors only guard short,
+// non-blocking sections (dispatcher queues, battery level).
+class ProcessExecutor {
+    public static ExecutorService create() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+}
+
+// Who is using an AGV, charging station or storage slot right now. A process claims every
+// resource it touches before it starts and releases them when it ends; a second claim on a
+// resource that is already owned fails instead of letting two jobs share it.
+class Ownership {
+    private final ConcurrentHashMap<Object, String> owners = new ConcurrentHashMap<>();
+
+    public void claim(Object resource, String owner) throws ProcessException {
+        if (!tryClaim(resource, owner)) {
+            throw new ProcessException(describe(resource) + " is already in use by " + owners.get(resource));
+        }
+    }
+
+    public boolean tryClaim(Object resource, String owner) {
+        String current = owners.putIfAbsent(resource, owner);
+        return current == null || current.equals(owner);
+    }
+
+    public void release(Object resource, String owner) {
+        owners.remove(resource, owner);
+    }
+
+    public String ownerOf(Object resource) {
+        return owners.get(resource);
+    }
+
+    // Storage slots have no object of their own
+    public static String slot(int row, int col) {
+        return "Slot[" + row + "," + col + "]";
+    }
+
+    private static String describe(Object resource) {
+        if (resource instanceof AGV) return "AGV#" + ((AGV) resource).getId();
+        if (resource instanceof ChargingStation) return "Charging Station#" + ((ChargingStation) resource).getId();
+        return resource.toString();
+    }
+}
+
+// ========================
+// Battery Class
+// ========================
+class Battery {
+    public static final double CHARGE_STEP = 20;          // % per step
+    public static final long CHARGE_STEP_MILLIS = 1000;   // time per step
+    public static final double LOW_LEVEL = 20;            // % below which an AGV must charge
+
+    private double level;
+    private CompletableFuture<Void> charging;   // null when not on a charger
+
+    public Battery() {
+        level = CapstoneProject.random.nextDouble() * 20 + 80; // start with 80-100%
+    }
+
+    public synchronized Outcome discharge(double amount) {
+        long span = Tracer.start();
+        try {
+            if (amount < 0) {
+                System.err.println("[BATTERY ERROR] Discharge amount cannot be negative!");
+                return Outcome.INVALID;
+            }
+            level = Math.max(0, level - amount);
+            CapstoneProject.router.print("[BATTERY] Discharged " + amount + "%. Current level: " + String.format("%.1f", level) + "%");
+            return Outcome.OK;
+        } finally {
+            Tracer.end("Battery.discharge", "battery", span);
+        }
+    }
+
+    // Charge to 100% in CHARGE_STEP steps on CapstoneProject.scheduler; completes when full
+    public CompletableFuture<Void> rechargeAsync() {
+        synchronized (this) {
+            if (charging != null) return charging;
+            if (level >= 100) {
+                System.err.println("[BATTERY ERROR] Battery is already full!");
+                return CompletableFuture.completedFuture(null);
+            }
+            charging = new CompletableFuture<>();
+        }
+        CompletableFuture<Void> done = charging;
+        CapstoneProject.router.event("[BATTERY] Charging started...", LogCategory.BATTERY);
+        CapstoneProject.scheduler.schedule(0, () -> chargeStep(done));
+        return done;
+    }
+
+    // Blocking form, waits without spinning
+    public void recharge() {
+        CapstoneProject.scheduler.await(rechargeAsync());
+    }
+
+    private void chargeStep(CompletableFuture<Void> done) {
+        double now;
+        synchronized (this) {
+            level = Math.min(level + CHARGE_STEP, 100); // increase by 20
+            now = level;
+        }
+        CapstoneProject.router.event("[BATTERY] Battery level: " + String.format("%.1f", now) + "%", LogCategory.BATTERY);
+        if (now < 100) {
+            CapstoneProject.scheduler.schedule(CHARGE_STEP_MILLIS, () -> chargeStep(done));
+        } else {
+            CapstoneProject.scheduler.schedule(CHARGE_STEP_MILLIS, () -> {
+                synchronized (this) {
+                    charging = null;
+                }
+                CapstoneProject.router.event("[BATTERY] Battery fully charged!", LogCategory.BATTERY);
+                done.complete(null);
+            });
+        }
+    }
+
+    public synchronized boolean isCharging() {
+        return charging != null;
+    }
+
+    public synchronized boolean isLow() {
+        return level < LOW_LEVEL;
+    }
+
+    public synchronized String getLevelString() {
+        return String.format("%.1f", level);
+    }
+
+    public synchronized double getLevel() {
+        return level;
+    }
+}
+
+// ========================
+// Abstract Resource
+// ========================
+abstract class Resource {
+    protected String id;
+    protected Position position;
+
+    public String getId() {
+        return id;
+    }
+
+    public Position getPosition() {
+        return position;
+    }
+
+    protected abstract void displayInfo();
+}
+
+// ========================
+// AGV Class
+// ========================
+class AGV extends Resource {
+    public static final long MILLIS_PER_CELL = 1000;   // travel time per grid cell
+    public static final double DRAIN_PER_CELL = 0.5;   // % battery per grid cell driven empty
+    public static final double LOADED_FACTOR = 1.5;    // carrying a box costs this much more
+
+    private Battery battery;
+    private Box carriedBox;
+    private boolean isActive;
+
+    public AGV(String id) {
+        this.id = id;
+        this.battery = new Battery();
+        this.isActive = false;
+        this.position = home();
+    }
+
+    // Where a new AGV is parked
+    public static Position home() {
+        return new Position(10, 10); // random point //todolist //
+    }
+
+    public Battery getBattery() {
+        return battery;
+    }
+
+    // Drives the planned route; time and battery use grow with its length
+    public Outcome moveTo(Position target) {
+        long span = Tracer.start();
+        try {
+            if (target == null) {
+                CapstoneProject.router.error("[ERROR] AGV#" + id + ": Target position cannot be null!", LogCategory.SYSTEM);
+                return Outcome.INVALID;
+            }
+            Position from = position;
+            int cells = CapstoneProject.planner.distance(from, target);
+            if (cells < 0) {
+                CapstoneProject.router.error("[ERROR] AGV#" + id + ": No route from " + from + " to " + target, LogCategory.SYSTEM);
+                return Outcome.NO_ROUTE;
+            }
+            CapstoneProject.scheduler.advance(cells * MILLIS_PER_CELL);
+            this.position = target;
+            battery.discharge(drain(cells, carriedBox != null));
+            boolean journaled = CapstoneProject.events.record(EventType.AGV_MOVED, id, null, from, target, battery.getLevel());
+            CapstoneProject.router.journaled(journaled, () -> "[AGV] AGV#" + id + " moved from " + from + " to " + target + " (" + cells + " cells)", LogCategory.AGV, LogCategory.SYSTEM);
+            return Outcome.OK;
+        } finally {
+            Tracer.end("AGV.moveTo", "agv", span);
+        }
+    }
+
+    // Driving time along the planned route, Long.MAX_VALUE when there is none
+    public static long travelMillis(Position from, Position to) {
+        return CapstoneProject.planner.travelMillis(from, to);
+    }
+
+    // Battery % used to drive the given number of cells
+    public static double drain(int cells, boolean loaded) {
+        return cells * DRAIN_PER_CELL * (loaded ? LOADED_FACTOR : 1);
+    }
+
+    public Outcome pickUpBox(Box box) {
+        long span = Tracer.start();
+        try {
+            if (box == null) {
+                CapstoneProject.router.error("[ERROR] AGV#" + id + ": Cannot pick up a null box!", LogCategory.SYSTEM);
+                return Outcome.INVALID;
+            }
+            carriedBox = box;
+            boolean journaled = CapstoneProject.events.record(EventType.BOX_PICKED_UP, id, box.getId(), position, null, battery.getLevel());
+            CapstoneProject.router.journaled(journaled, () -> "[AGV] AGV#" + id + " picked up Box#" + box.getId(), LogCategory.AGV, LogCategory.SYSTEM);
+            return Outcome.OK;
+        } finally {
+            Tracer.end("AGV.pickUpBox", "agv", span);
+        }
+    }
+
+    // Outcome of the store; the AGV lets go of the box either way
+    public Outcome dropBox(StorageArea area) {
+        long span = Tracer.start();
+        try {
+            if (carriedBox == null) {
+                CapstoneProject.router.error("[ERROR] No box to drop!", LogCategory.SYSTEM);
+                return Outcome.EMPTY;
+            }
+            if (area == null) {
+                CapstoneProject.router.error("[ERROR] Storage area is null!", LogCategory.SYSTEM);
+                return Outcome.INVALID;
+            }
+
+            Outcome stored = area.storeBox(carriedBox);
+            carriedBox = null;
+            return stored;
+        } finally {
+            Tracer.end("AGV.dropBox", "agv", span);
+        }
+    }
+
+    // Hand the carried box over at the drop-off point
+    public void handOverBox() {
+        if (carriedBox == null) return;
+        CapstoneProject.router.event("[AGV] AGV#" + id + " handed over Box#" + carriedBox.getId() + " at " + position, LogCategory.AGV, LogCategory.SYSTEM);
+        carriedBox = null;
+    }
+
+    public void setActive(boolean state) {
+        isActive = state;
+    }
+
+    @Override
+    protected void displayInfo() {
+        CapstoneProject.router.event("[INFO] AGV#" + id + " | Battery: " + battery.getLevelString() + "% | Active: " + isActive, LogCategory.AGV, LogCategory.BATTERY);
+    }
+}
+
+// ========================
+// Box Class
+// ========================
+class Box extends Resource {
+    private String weight;
+    private String content;
+
+    public Box(String id, String weight, String content) {
+        this.id = id;
+        this.weight = weight;
+        this.content = content;
+        this.position = new Position(-5, -5);
+    }
+
+    public void setPosition(int row, int col) {
+        if (position == null) {
+            position = new Position(row, col);
+            return;
+        }
+        position.setRow(row);
+        position.setCol(col);
+    }
+
+    public String getWeight() {
+        return weight;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public int getRow() {
+        return position.getRow();
+    }
+
+    public int getColumn() {
+        return position.getCol();
+    }
+
+    @Override
+    public String toString() {
+        return "Box ID: " + id + ", Weight: " + weight + " kg, Content:" + content;
+    }
+
+    @Override
+    protected void displayInfo() {
+        System.out.println("Box#" + id + " | " + content + " | Storage Pos: " + position);
+    }
+}
+
+// ========================
+// Slot Allocator
+// ========================
+enum PlacementPolicy {
+    FIRST_FIT,          // lowest row, then lowest column
+    NEAREST_TO_PICKUP,  // shortest Manhattan distance from the pickup point
+    ZONE_BALANCED       // emptiest band of rows first, spreads load across the area
+}
+
+// Tracks free slots (row * cols + col) so StorageArea never scans the grid. Lock-free: the free
+// bitmap is 64-slot words changed by compare-and-set, so concurrent stores and retrieves in
+// different rows never wait on each other. A claim picks a candidate and wins it with a CAS,
+// retrying when another thread got there first.
+// FIRST_FIT takes the lowest free bit, NEAREST_TO_PICKUP a distance-ordered skip list (O(log n)),
+// ZONE_BALANCED per-zone free counters plus the lowest free bit inside the chosen zone.
+class SlotAllocator {
+    private static final int DEFAULT_ZONES = 4;
+
+    private final int cols, size;
+    private final AtomicLongArray free;     // bit set = slot free
+    private final int zoneRows;
+    private final AtomicIntegerArray zoneFree;
+    private volatile PlacementPolicy policy = PlacementPolicy.FIRST_FIT;
+    private Position pickup = new Position(0, 0);   // guarded by this, read only by setPolicy
+    // Only kept for NEAREST_TO_PICKUP. A hint: it may briefly hold a used slot, never misses a free one
+    private volatile ConcurrentSkipListSet<Integer> byDistance;
+
+    public SlotAllocator(int rows, int cols) {
+        this.cols = cols;
+        this.size = rows * cols;
+        this.free = new AtomicLongArray((size + 63) >>> 6);
+        for (int w = 0; w < free.length(); w++) {
+            int bits = Math.min(64, size - (w << 6));
+            free.set(w, bits == 64 ? -1L : (1L << bits) - 1);
+        }
+        int zones = Math.max(1, Math.min(rows, DEFAULT_ZONES));
+        this.zoneRows = (rows + zones - 1) / zones;
+        this.zoneFree = new AtomicIntegerArray(rows == 0 ? 0 : (rows + zoneRows - 1) / zoneRows);
+        for (int z = 0; z < zoneFree.length(); z++) {
+            zoneFree.set(z, (Math.min(rows, (z + 1) * zoneRows) - z * zoneRows) * cols);
+        }
+    }
+
+    // Every change builds a new distance set whose comparator keeps its own copy of the pickup
+    // point, then publishes it whole; a set already in use is never reordered under its readers
+    public synchronized void setPolicy(PlacementPolicy policy, Position pickup) {
+        if (pickup != null) this.pickup = pickup;
+        ConcurrentSkipListSet<Integer> ordered = null;
+        if (policy == PlacementPolicy.NEAREST_TO_PICKUP) {
+            int row = this.pickup.getRow(), col = this.pickup.getCol();
+            ordered = new ConcurrentSkipListSet<>((a, b) -> {
+                int d = Integer.compare(distance(a, row, col), distance(b, row, col));
+                return d != 0 ? d : Integer.compare(a, b);
+            });
+            addFreeSlots(ordered);
+        }
+        byDistance = ordered;
+        this.policy = policy;
+        // a slot freed while the set was built updated the old set only, add it now
+        if (ordered != null) addFreeSlots(ordered);
+    }
+
+    private void addFreeSlots(ConcurrentSkipListSet<Integer> ordered) {
+        for (int slot = nextFree(0, size); slot >= 0; slot = nextFree(slot + 1, size)) {
+            ordered.add(slot);
+        }
+    }
+
+    public PlacementPolicy getPolicy() {
+        return policy;
+    }
+
+    // Next slot to fill under the current policy, -1 when full (the slot is not claimed)
+    public int next() {
+        switch (policy) {
+            case NEAREST_TO_PICKUP: {
+                ConcurrentSkipListSet<Integer> ordered = byDistance;
+                if (ordered != null) {
+                    for (int slot : ordered) {
+                        if (isFree(slot)) return slot;
+                    }
+                    return -1;
+                }
+                return nextFree(0, size);
+            }
+            case ZONE_BALANCED: {
+                int best = -1;
+                for (int z = 0; z < zoneFree.length(); z++) {
+                    if (zoneFree.get(z) > 0 && (best < 0 || zoneFree.get(z) > zoneFree.get(best))) best = z;
+                }
+                if (best < 0) return -1;
+                int slot = nextFree(best * zoneRows * cols, (int) Math.min(size, (long) (best + 1) * zoneRows * cols));
+                return slot >= 0 ? slot : nextFree(0, size); // the zone filled up meanwhile
+            }
+            default:
+                return nextFree(0, size);
+        }
+    }
+
+    // next() and markUsed() in one step: the returned slot belongs to the caller, -1 when full
+    public int claim() {
+        while (true) {
+            int slot = next();
+            if (slot < 0 || markUsed(slot)) return slot;
+        }
+    }
+
+    public boolean isFree(int slot) {
+        return (free.get(slot >>> 6) & (1L << slot)) != 0;
+    }
+
+    // true if the slot was free and is now used by the caller
+    public boolean markUsed(int slot) {
+        int w = slot >>> 6;
+        long bit = 1L << slot;
+        long word;
+        do {
+            word = free.get(w);
+            if ((word & bit) == 0) return false;
+        } while (!free.compareAndSet(w, word, word & ~bit));
+        zoneFree.decrementAndGet(slot / cols / zoneRows);
+        ConcurrentSkipListSet<Integer> ordered = byDistance;
+        if (ordered != null) {
+            ordered.remove(slot);
+            if (isFree(slot)) ordered.add(slot); // freed again while we removed it
+        }
+        return true;
+    }
+
+    // true if the slot was used and is now free
+    public boolean markFree(int slot) {
+        int w = slot >>> 6;
+        long bit = 1L << slot;
+        long word;
+        do {
+            word = free.get(w);
+            if ((word & bit) != 0) return false;
+        } while (!free.compareAndSet(w, word, word | bit));
+        zoneFree.incrementAndGet(slot / cols / zoneRows);
+        ConcurrentSkipListSet<Integer> ordered = byDistance;
+        if (ordered != null) ordered.add(slot);
+        return true;
+    }
+
+    public int freeCount() {
+        int count = 0;
+        for (int z = 0; z < zoneFree.length(); z++) count += zoneFree.get(z);
+        return count;
+    }
+
+    // Lowest free slot in [from, to), -1 if none
+    private int nextFree(int from, int to) {
+        for (int w = from >>> 6; (long) w << 6 < to; w++) {
+            long word = free.get(w);
+            if (w == from >>> 6) word &= -1L << from;
+            if (word != 0) {
+                int slot = (w << 6) + Long.numberOfTrailingZeros(word);
+                return slot < to ? slot : -1;
+            }
+        }
+        return -1;
+    }
+
+    private int distance(int slot, int row, int col) {
+        return Math.abs(slot / cols - row) + Math.abs(slot % cols - col);
+    }
+}
+
+// ========================
+// Shelf Storage Backends
+// ========================
+enum ShelfBackend {
+    OBJECTS,          // one Box object per occupied slot
+    PACKED_OFF_HEAP   // primitive records in a direct ByteBuffer, Boxes built on demand
+}
+
+// Slot contents by slot index (row * cols + col). Callers handle locking.
+interface ShelfStore {
+    Box get(int slot, int row, int col);
+
+    boolean isOccupied(int slot);
+
+    void put(int slot, Box box);
+
+    void clear(int slot);
+}
+
+class ObjectShelfStore implements ShelfStore {
+    private final Box[] slots;
+
+    public ObjectShelfStore(int size) {
+        slots = new Box[size];
+    }
+
+    @Override
+    public Box get(int slot, int row, int col) {
+        return slots[slot];
+    }
+
+    @Override
+    public boolean isOccupied(int slot) {
+        return slots[slot] != null;
+    }
+
+    @Override
+    public void put(int slot, Box box) {
+        slots[slot] = box;
+    }
+
+    @Override
+    public void clear(int slot) {
+        slots[slot] = null;
+    }
+}
+
+// Reference-counted string table: equal strings share one handle (descriptions repeat a lot).
+// Primitive arrays only: strings and int ref counts by handle, and an open-addressing table of
+// handles (linear probing, at most half full) instead of a HashMap of boxed Integers. Split into
+// SHARDS independently locked tables chosen by hash, so concurrent stores in packed mode do not
+// all queue on one monitor; a handle is (index in its shard << SHARD_BITS) | shard.
+class StringPool {
+    private static final int SHARD_BITS = 4;
+    private static final int SHARDS = 1 << SHARD_BITS;
+
+    private final Shard[] shards = new Shard[SHARDS];
+
+    public StringPool() {
+        for (int i = 0; i < SHARDS; i++) shards[i] = new Shard();
+    }
+
+    public int acquire(String value) {
+        int shard = Shard.hash(value) >>> (32 - SHARD_BITS); // the tables index by the low bits
+        return shards[shard].acquire(value) << SHARD_BITS | shard;
+    }
+
+    public String get(int handle) {
+        return shards[handle & (SHARDS - 1)].get(handle >>> SHARD_BITS);
+    }
+
+    public void release(int handle) {
+        shards[handle & (SHARDS - 1)].release(handle >>> SHARD_BITS);
+    }
+
+    private static final class Shard {
+        private static final int EMPTY = -1;
+
+        private String[] values = new String[16];
+        private int[] refCounts = new int[16];
+        private int[] freeHandles = new int[16];
+        private int[] table = emptyTable(32);   // handle per bucket, EMPTY when unused
+        private int handles;                    // handles handed out so far
+        private int freeCount;
+        private int live;                       // strings with a ref count above zero
+
+        public synchronized int acquire(String value) {
+            int bucket = find(value);
+            int handle = table[bucket];
+            if (handle != EMPTY) {
+                refCounts[handle]++;
+                return handle;
+            }
+            if (freeCount > 0) {
+                handle = freeHandles[--freeCount];
+            } else {
+                handle = handles++;
+                if (handle == values.length) {
+                    values = Arrays.copyOf(values, handle * 2);
+                    refCounts = Arrays.copyOf(refCounts, handle * 2);
+                }
+            }
+            values[handle] = value;
+            refCounts[handle] = 1;
+            table[bucket] = handle;
+            if (++live * 2 > table.length) rehash(table.length * 2);
+            return handle;
+        }
+
+        public synchronized String get(int handle) {
+            return values[handle];
+        }
+
+        public synchronized void release(int handle) {
+            if (--refCounts[handle] > 0) return;
+            unlink(find(values[handle]));
+            values[handle] = null;
+            live--;
+            if (freeCount == freeHandles.length) freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+            freeHandles[freeCount++] = handle;
+        }
+
+        // Bucket holding value, or the empty bucket where it would go
+        private int find(String value) {
+            int mask = table.length - 1;
+            int bucket = hash(value) & mask;
+            while (table[bucket] != EMPTY && !values[table[bucket]].equals(value)) {
+                bucket = (bucket + 1) & mask;
+            }
+            return bucket;
+        }
+
+        // Empty a bucket and pull later entries of the probe run back, so lookups need no tombstones
+        private void unlink(int bucket) {
+            int mask = table.length - 1;
+            int hole = bucket;
+            for (int next = (hole + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+                int home = hash(values[table[next]]) & mask;
+                boolean movable = hole <= next ? home <= hole || home > next : home <= hole && home > next;
+                if (movable) {
+                    table[hole] = table[next];
+                    hole = next;
+                }
+            }
+            table[hole] = EMPTY;
+        }
+
+        private void rehash(int size) {
+            table = emptyTable(size);
+            for (int handle = 0; handle < handles; handle++) {
+                if (values[handle] != null) table[find(values[handle])] = handle;
+            }
+        }
+
+        private static int[] emptyTable(int size) {
+            int[] table = new int[size];
+            Arrays.fill(table, EMPTY);
+            return table;
+        }
+
+        private static int hash(String value) {
+            int h = value.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+}
+
+// 24 bytes per slot, off-heap: idHandle+1 (int, 0 = empty) | contentHandle (int) |
+// weight (double) | weightHandle (int, -1 when the weight text round-trips through the double).
+// An empty slot costs no heap at all. A stored box still costs heap for its id String (its
+// content only when not shared), about 16 bytes of StringPool arrays per distinct string, and
+// its StorageArea.boxIndex entry (HashMap node plus boxed slot, about 50 bytes).
+class PackedShelfStore implements ShelfStore {
+    private static final int SLOT_BYTES = 24;
+    public static final int MAX_SLOTS = Integer.MAX_VALUE / SLOT_BYTES; // one ByteBuffer
+
+    private final ByteBuffer data;
+    private final StringPool strings = new StringPool();
+
+    public PackedShelfStore(int size) {
+        if (size > MAX_SLOTS) {
+            throw new IllegalArgumentException("Packed shelves hold at most " + MAX_SLOTS + " slots, not " + size);
+        }
+        data = ByteBuffer.allocateDirect(size * SLOT_BYTES); // zeroed, every slot empty
+    }
+
+    @Override
+    public Box get(int slot, int row, int col) {
+        int at = slot * SLOT_BYTES;
+        int id = data.getInt(at);
+        if (id == 0) return null;
+        int weightHandle = data.getInt(at + 16);
+        String weight = weightHandle >= 0 ? strings.get(weightHandle) : formatWeight(data.getDouble(at + 8));
+        Box box = new Box(strings.get(id - 1), weight, strings.get(data.getInt(at + 4)));
+        box.setPosition(row, col);
+        return box;
+    }
+
+    @Override
+    public boolean isOccupied(int slot) {
+        return data.getInt(slot * SLOT_BYTES) != 0;
+    }
+
+    @Override
+    public void put(int slot, Box box) {
+        int at = slot * SLOT_BYTES;
+        String weight = box.getWeight();
+        double numeric = parseWeight(weight);
+        boolean exact = !Double.isNaN(numeric) && formatWeight(numeric).equals(weight);
+        data.putInt(at, strings.acquire(box.getId()) + 1);
+        data.putInt(at + 4, strings.acquire(box.getContent()));
+        data.putDouble(at + 8, numeric);
+        data.putInt(at + 16, exact ? -1 : strings.acquire(weight));
+    }
+
+    @Override
+    public void clear(int slot) {
+        int at = slot * SLOT_BYTES;
+        int id = data.getInt(at);
+        if (id == 0) return;
+        strings.release(id - 1);
+        strings.release(data.getInt(at + 4));
+        int weightHandle = data.getInt(at + 16);
+        if (weightHandle >= 0) strings.release(weightHandle);
+        data.putInt(at, 0);
+    }
+
+    private static double parseWeight(String weight) {
+        try {
+            return Double.parseDouble(weight);
+        } catch (RuntimeException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static String formatWeight(double weight) {
+        return BigDecimal.valueOf(weight).stripTrailingZeros().toPlainString();
+    }
+}
+
+// ========================
+// StorageArea Class
+// ========================
+class StorageArea {
+    private static final int MAX_LOCK_STRIPES = 256;
+
+    private ShelfStore shelves;
+    private ShelfBackend backend;
+    private int rows, cols;
+    private Map<String, Integer> boxIndex; // box id -> slot (row * cols + col)
+    private SlotAllocator slots;           // lock-free
+    private ReentrantLock[] rowLocks;      // null unless concurrent; stripe = row % length
+    private StoragePersistence persistence = StoragePersistence.disabled();
+
+    public StorageArea(int rows, int cols) {
+        this(rows, cols, false);
+    }
+
+    // concurrent = several processes may store/retrieve at once (rows are lock-striped)
+    public StorageArea(int rows, int cols, boolean concurrent) {
+        this(rows, cols, concurrent, ShelfBackend.OBJECTS);
+    }
+
+    // backend = PACKED_OFF_HEAP keeps slots as primitive records for very large grids
+    public StorageArea(int rows, int cols, boolean concurrent, ShelfBackend backend) {
+        if (rows < 0 || cols < 0 || (long) rows * cols > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Storage area " + rows + "x" + cols + " is too large or negative");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.backend = backend;
+        shelves = backend == ShelfBackend.PACKED_OFF_HEAP
+                ? new PackedShelfStore(rows * cols)
+                : new ObjectShelfStore(rows * cols);
+        slots = new SlotAllocator(rows, cols);
+        if (concurrent) {
+            boxIndex = new ConcurrentHashMap<>();
+            rowLocks = new ReentrantLock[Math.max(1, Math.min(rows, MAX_LOCK_STRIPES))];
+            for (int i = 0; i < rowLocks.length; i++) rowLocks[i] = new ReentrantLock();
+        } else {
+            boxIndex = new HashMap<>();
+        }
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    // Boxes stored right now
+    public int boxCount() {
+        return boxIndex.size();
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public boolean isConcurrent() {
+        return rowLocks != null;
+    }
+
+    public ShelfBackend getBackend() {
+        return backend;
+    }
+
+    // Journal every store/retrieve from now on (set by StoragePersistence.recover)
+    public void attachPersistence(StoragePersistence persistence) {
+        this.persistence = persistence;
+    }
+
+    // Put a recovered box back without logging or journaling; skips boxes that no longer fit
+    void restoreBox(Box box) {
+        int row = box.getRow(), col = box.getColumn();
+        if (row < 0 || col < 0 || row >= rows || col >= cols) {
+            System.err.println("[WARN] Recovered Box#" + box.getId() + " is outside the storage area, skipped.");
+            return;
+        }
+        int slot = row * cols + col;
+        if (shelves.isOccupied(slot) || boxIndex.containsKey(box.getId())) return; // already applied
+        shelves.put(slot, box);
+        boxIndex.put(box.getId(), slot);
+        slots.markUsed(slot);
+    }
+
+    // Undo restoreBox for a journaled retrieval, only if the same box is still there
+    void removeRestored(int row, int col, String id) {
+        if (row < 0 || col < 0 || row >= rows || col >= cols) return;
+        int slot = row * cols + col;
+        Integer indexed = boxIndex.get(id);
+        if (indexed == null || indexed != slot) return;
+        shelves.clear(slot);
+        boxIndex.remove(id);
+        slots.markFree(slot);
+    }
+
+    // Take back a store whose journal record never reached the disk
+    private void undoStore(int row, int col, String id) {
+        int slot = row * cols + col;
+        lockRow(row);
+        try {
+            Integer indexed = boxIndex.get(id);
+            if (indexed == null || indexed != slot) return;
+            shelves.clear(slot);
+            boxIndex.remove(id);
+            slots.markFree(slot);
+        } finally {
+            unlockRow(row);
+        }
+    }
+
+    // Put back a retrieved box whose journal record never reached the disk
+    private void undoRetrieve(int row, int col, Box box) {
+        int slot = row * cols + col;
+        lockRow(row);
+        try {
+            if (shelves.isOccupied(slot) || boxIndex.putIfAbsent(box.getId(), slot) != null) return;
+            shelves.put(slot, box);
+            slots.markUsed(slot);
+        } finally {
+            unlockRow(row);
+        }
+    }
+
+    // Every stored box with its position, row by row
+    public List<Box> listBoxes() {
+        List<Box> boxes = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            lockRow(i);
+            try {
+                for (int j = 0; j < cols; j++) {
+                    Box box = shelves.get(i * cols + j, i, j);
+                    if (box != null) boxes.add(box);
+                }
+            } finally {
+                unlockRow(i);
+            }
+        }
+        return boxes;
+    }
+
+    private void lockRow(int row) {
+        if (rowLocks != null) rowLocks[row % rowLocks.length].lock();
+    }
+
+    private void unlockRow(int row) {
+        if (rowLocks != null) rowLocks[row % rowLocks.length].unlock();
+    }
+
+    // Choose where findEmptySlot() puts the next box (pickup is used by NEAREST_TO_PICKUP)
+    public void setPlacementPolicy(PlacementPolicy policy, Position pickup) {
+        slots.setPolicy(policy, pickup);
+    }
+
+    // Next empty slot under the placement policy, null when full (the slot is not reserved)
+    public Position findEmptySlot() {
+        int slot = slots.next();
+        if (slot < 0) return null; //full
+        return new Position(slot / cols, slot % cols);
+    }
+
+    // Like findEmptySlot() but reserves the slot, so concurrent callers never get the same one.
+    // Give it back with releaseSlot() if the box is not stored after all.
+    public Position claimEmptySlot() {
+        long span = Tracer.start();
+        try {
+            int slot = slots.claim();
+            if (slot < 0) return null; //full
+            return new Position(slot / cols, slot % cols);
+        } finally {
+            Tracer.end("StorageArea.claimEmptySlot", "storage", span);
+        }
+    }
+
+    // Claim one particular empty slot, e.g. where a pillar stands; false if taken or outside
+    public boolean claimSlot(int row, int col) {
+        if (row < 0 || col < 0 || row >= rows || col >= cols) return false;
+        return slots.markUsed(row * cols + col);
+    }
+
+    // Return a claimed slot that was never filled
+    public void releaseSlot(Position pos) {
+        int row = pos.getRow(), col = pos.getCol();
+        if (row < 0 || col < 0 || row >= rows || col >= cols) return;
+        lockRow(row);
+        try {
+            if (!shelves.isOccupied(row * cols + col)) slots.markFree(row * cols + col);
+        } finally {
+            unlockRow(row);
+        }
+    }
+
+    public boolean isFull() {
+        return slots.freeCount() == 0;
+    }
+
+    // Find box position by ID
+    public Position findBoxById(String id) {
+        Integer slot = boxIndex.get(id);
+        if (slot == null) return null; // not found
+        return new Position(slot / cols, slot % cols);
+    }
+
+    // Is a box with this ID stored already
+    public boolean containsBox(String id) {
+        return boxIndex.containsKey(id);
+    }
+
+    // null when the slot is empty or outside the area
+    public Box getBoxAt(int row, int col) {
+        if (row < 0 || col < 0 || row >= rows || col >= cols) {
+            CapstoneProject.router.error("[ERROR] Invalid position [" + row + "," + col + "]", LogCategory.SYSTEM);
+            return null; //not found
+        }
+        lockRow(row);
+        try {
+            return shelves.get(row * cols + col, row, col);
+        } finally {
+            unlockRow(row);
+        }
+    }
+
+    // Stores the box at its own position: OK, OUT_OF_BOUNDS, OCCUPIED, DUPLICATE or NOT_DURABLE
+    public Outcome storeBox(Box box) {
+        long span = Tracer.start();
+        try {
+            int row = box.getRow();
+            int col = box.getColumn();
+            if (row < 0 || col < 0 || row >= rows || col >= cols) {
+                CapstoneProject.router.event("[ERROR] Invalid storage position " + box.getPosition(), LogCategory.SYSTEM);
+                return Outcome.OUT_OF_BOUNDS;
+            }
+
+            byte[] record = persistence.encodeStore(row, col, box);
+            if (record == null) {
+                CapstoneProject.router.event("[ERROR] Box#" + box.getId() + " cannot be journaled (ID, weight or content too long)", LogCategory.SYSTEM);
+                return Outcome.INVALID;
+            }
+
+            boolean occupied = false, duplicate = false, durable;
+            long journalSeq = 0;
+            persistence.beginChange();
+            lockRow(row);
+            try {
+                if (shelves.isOccupied(row * cols + col)) {
+                    occupied = true;
+                } else if (boxIndex.putIfAbsent(box.getId(), row * cols + col) != null) {
+                    duplicate = true;
+                } else {
+                    journalSeq = persistence.append(record);
+                    if (journalSeq < 0) {
+                        boxIndex.remove(box.getId(), row * cols + col);
+                    } else {
+                        shelves.put(row * cols + col, box);
+                        slots.markUsed(row * cols + col);
+                    }
+                }
+            } finally {
+                unlockRow(row);
+                durable = persistence.endChange(journalSeq);
+            }
+
+            if (!durable) {
+                if (journalSeq > 0) undoStore(row, col, box.getId());
+                CapstoneProject.router.error("[ERROR] Storage journal failed, Box#" + box.getId() + " was not stored", LogCategory.SYSTEM);
+                return Outcome.NOT_DURABLE;
+            }
+            if (duplicate) {
+                CapstoneProject.router.event("[ERROR] Box ID " + box.getId() + " is already stored!", LogCategory.SYSTEM);
+                return Outcome.DUPLICATE;
+            }
+            if (occupied) {
+                CapstoneProject.router.event("[ERROR] Position " + box.getPosition() + " is occupied!", LogCategory.SYSTEM);
+                return Outcome.OCCUPIED;
+            }
+            boolean journaled = CapstoneProject.events.record(EventType.BOX_STORED, null, box.getId(), null, box.getPosition(), Double.NaN);
+            CapstoneProject.router.journaled(journaled, () -> "[STORAGE] Stored Box#" + box.getId() + " at " + box.getPosition(), LogCategory.SYSTEM);
+            return Outcome.OK;
+        } finally {
+            Tracer.end("StorageArea.storeBox", "storage", span);
+        }
+    }
+
+    // The removed box, null when the slot is empty or outside the area
+    public Box retrieveBox(int row, int col) {
+        long span = Tracer.start();
+        try {
+            if (row < 0 || col < 0 || row >= rows || col >= cols) {
+                CapstoneProject.router.event("[ERROR] Invalid retrieve position [" + row + "," + col + "]", LogCategory.SYSTEM);
+                return null;
+            }
+
+            Box box;
+            long journalSeq = 0;
+            boolean durable;
+            persistence.beginChange();
+            lockRow(row);
+            try {
+                box = shelves.get(row * cols + col, row, col);
+                if (box != null) {
+                    journalSeq = persistence.logRetrieve(row, col, box.getId());
+                    if (journalSeq >= 0) {
+                        shelves.clear(row * cols + col);
+                        boxIndex.remove(box.getId(), row * cols + col);
+                        slots.markFree(row * cols + col);
+                    }
+                }
+            } finally {
+                unlockRow(row);
+                durable = persistence.endChange(journalSeq);
+            }
+
+            if (!durable) {
+                if (journalSeq > 0) undoRetrieve(row, col, box);
+                CapstoneProject.router.error("[ERROR] Storage journal failed, Box#" + box.getId() + " stays at [" + row + "," + col + "]", LogCategory.SYSTEM);
+                return null;
+            }
+            if (box == null) {
+                CapstoneProject.router.event("[RETRIEVE] No box at [" + row + "," + col + "]", LogCategory.SYSTEM);
+                return null;
+            }
+            boolean journaled = CapstoneProject.events.record(EventType.BOX_RETRIEVED, null, box.getId(), new Position(row, col), null, Double.NaN);
+            CapstoneProject.router.journaled(journaled, () -> "[RETRIEVE] Retrieved Box#" + box.getId() + " from [" + row + "," + col + "]", LogCategory.SYSTEM);
+            return box;
+        } finally {
+            Tracer.end("StorageArea.retrieveBox", "storage", span);
+        }
+    }
+
+    public void displayAllBoxes() {
+        System.out.println("=== Storage Area Contents ===");
+        for (int i = 0; i < rows; i++) {
+            lockRow(i);
+            try {
+                for (int j = 0; j < cols; j++) {
+                    Box box = shelves.get(i * cols + j, i, j);
+                    if (box != null) {
+                        System.out.println("Row " + i + ", Col " + j + " : " + box);
+                    } else {
+                        System.out.println("Row " + i + ", Col " + j + ": [Empty]");
+                    }
+                }
+            } finally {
+                unlockRow(i);
+            }
+        }
+    }
+}
+
+// ========================
+// ChargingStation Class
+// ========================
+class ChargingStation {
+    private String stationId;
+    private boolean isOccupied;   // guarded by lock
+    private AGV currentAGV;       // guarded by lock
+    private Position position;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public ChargingStation(String id, Position pos) {
+        this.stationId = id;
+        this.position = pos;
+        this.isOccupied = false;
+    }
+
+    // OK, or OCCUPIED when another AGV is on the station. The station is taken under the
+    // lock; the drive there takes time and happens after it is released.
+    public Outcome assignAGV(AGV agv) {
+        AGV occupant;
+        lock.lock();
+        try {
+            occupant = currentAGV;
+            if (!isOccupied) {
+                currentAGV = agv;
+                isOccupied = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (occupant != null) {
+            CapstoneProject.router.error("[CHARGING ERROR] Charging Station#" + stationId + " is already occupied by AGV#"
+                    + occupant.getId() + ". Cannot assign AGV#" + agv.getId(), LogCategory.SYSTEM);
+            return Outcome.OCCUPIED;
+        }
+        agv.moveTo(position);
+        boolean journaled = CapstoneProject.events.record(EventType.CHARGE_ASSIGNED, agv.getId(), null, null, position, agv.getBattery().getLevel());
+        CapstoneProject.router.journaled(journaled, () -> "[AGV] AGV#" + agv.getId() + " assigned to Charging Station#" + stationId, LogCategory.AGV, LogCategory.SYSTEM);
+        return Outcome.OK;
+    }
+
+    // Start charging the assigned AGV; the station frees itself when the battery is full
+    public CompletableFuture<Void> chargeAGVAsync() {
+        AGV agv;
+        lock.lock();
+        try {
+            agv = currentAGV;
+        } finally {
+            lock.unlock();
+        }
+        if (agv == null) {
+            CapstoneProject.router.error("[CHARGING ERROR] No AGV assigned to Charging Station#" + stationId + " to charge.", LogCategory.SYSTEM);
+            return CompletableFuture.completedFuture(null);
+        }
+        long span = Tracer.start();
+        return agv.getBattery().rechargeAsync().thenRun(() -> {
+            Tracer.endOn(stationId, "ChargingStation.chargeAGV", "charging", span);
+            boolean journaled = CapstoneProject.events.record(EventType.CHARGE_COMPLETED, agv.getId(), null, null, position, agv.getBattery().getLevel());
+            CapstoneProject.router.journaled(journaled, () -> "[AGV] AGV#" + agv.getId() + " fully charged at Station#" + stationId, LogCategory.AGV, LogCategory.BATTERY);
+            lock.lock();
+            try {
+                if (currentAGV == agv) {
+                    isOccupied = false;
+                    currentAGV = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    // Blocking form: charge and wait until the station is free again
+    public void chargeAGV() {
+        CapstoneProject.scheduler.await(chargeAGVAsync());
+    }
+
+    public boolean isOccupied() {
+        lock.lock();
+        try {
+            return isOccupied;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getId() {
+        return stationId;
+    }
+
+    public Position getPosition() {
+        return position;
+    }
+}
+
+
+// ========================
+// Abstract Process
+// ========================
+
+class ProcessException extends WarehouseException {
+    public ProcessException(String message) {
+        super(message);
+    }
+}
+
+// No empty slot was left for a store
+class StorageFullException extends ProcessException {
+    public StorageFullException(String message) {
+        super(message);
+    }
+}
+
+abstract class Process {
+    protected AGV activeAGV;
+    protected Box box;
+    protected StorageArea storageArea;
+    protected String status;
+    protected static final Position PICKUP_POS = new Position(-1, -1);
+    protected static final Position DROPOFF_POS = new Position(5, 5);
+
+    // agv is picked by the FleetDispatcher, which also sends low AGVs to charge
+    public Process(AGV agv, Box box, StorageArea area) {
+        this.activeAGV = agv;
+        this.box = box;
+        this.storageArea = area;
+    }
+
+    protected void checkAGV() throws ProcessException {
+        long span = Tracer.start();
+        try {
+            if (activeAGV.getBattery().isCharging() || activeAGV.getBattery().isLow()) {
+                throw new ProcessException("AGV#" + activeAGV.getId() + " cannot take the job, battery at "
+                        + activeAGV.getBattery().getLevelString() + "%");
+            }
+        } finally {
+            Tracer.end("checkAGV", "process", span);
+        }
+    }
+
+    // A step that didn't go through ends the process
+    protected void require(Outcome outcome, String step) throws ProcessException {
+        if (!outcome.ok()) {
+            status = "Failed";
+            throw new ProcessException(step + " failed for Box#" + box.getId() + " (" + outcome + ")");
+        }
+    }
+
+    protected abstract void execute() throws ProcessException;
+
+    // execute(), timed into this process' histogram in CapstoneProject.metrics (failed runs too)
+    public void executeTimed() throws ProcessException {
+        long span = Tracer.start();
+        long start = CapstoneProject.scheduler.nanoTime();
+        try {
+            execute();
+        } finally {
+            latency().record((CapstoneProject.scheduler.nanoTime() - start) / 1000);
+            Tracer.end(getClass().getSimpleName(), "process", span);
+        }
+    }
+
+    protected abstract LatencyHistogram latency();
+
+    protected abstract void logProcess();
+}
+
+// ========================
+// Storing Process
+// ========================
+class Storing extends Process {
+    public Storing(AGV agv, Box box, StorageArea area) {
+        super(agv, box, area);
+    }
+
+    @Override
+    protected void execute() throws ProcessException {
+        checkAGV();
+
+        if (box == null) {
+            throw new ProcessException("No box found to store!");
+        }
+
+        require(activeAGV.moveTo(PICKUP_POS), "Driving to the pickup point");
+        require(activeAGV.pickUpBox(box), "Pickup");
+
+        require(activeAGV.moveTo(box.getPosition()), "Driving to the slot");
+        require(activeAGV.dropBox(storageArea), "Storing");
+
+        status = "Stored";
+    }
+
+    @Override
+    protected LatencyHistogram latency() {
+        return CapstoneProject.metrics.storeLatency();
+    }
+
+    @Override
+    protected void logProcess() {
+        CapstoneProject.router.event("[PROCESS] " + status + " Box#" + box.getId() + " by AGV#" + activeAGV.getId(), LogCategory.SYSTEM);
+    }
+}
+
+
+// ========================
+// Retrieving Process
+// ========================
+class Retrieving extends Process {
+    public Retrieving(AGV agv, Box box, StorageArea area) {
+        super(agv, box, area);
+    }
+
+    @Override
+    protected void execute() throws ProcessException {
+        checkAGV();
+
+        if (box == null) {
+            throw new ProcessException("No box assigned for retrieval!");
+        }
+
+        int row = box.getRow();
+        int col = box.getColumn();
+
+        require(activeAGV.moveTo(box.getPosition()), "Driving to the slot");
+
+        Box retrieved = storageArea.retrieveBox(row, col);
+        if (retrieved != null) {
+            activeAGV.pickUpBox(retrieved);
+            require(activeAGV.moveTo(DROPOFF_POS), "Driving to the drop-off point");
+            activeAGV.handOverBox();
+            status = "Retrieved";
+        } else {
+            status = "Failed";
+            throw new ProcessException("Box could not be retrieved from storage!");
+        }
+    }
+
+    @Override
+    protected LatencyHistogram latency() {
+        return CapstoneProject.metrics.retrieveLatency();
+    }
+
+    @Override
+    protected void logProcess() {
+        CapstoneProject.router.event("[PROCESS] " + status + " Box#" + box.getId() + " by AGV#" + activeAGV.getId(), LogCategory.SYSTEM);
+    }
+}
+
+
+// ========================
+// Charging Station Pool
+// ========================
+// Hands out charging stations instead of failing when one is occupied. A request gets the
+// nearest free station, or waits in line until one is released. The dispatcher books a
+// station ahead of time for an AGV whose jobs are predicted to leave it low: a reservation
+// due within RESERVATION_HORIZON_MILLIS keeps a station back from unreserved requests, and
+// the reserved AGV goes to the front of the line when it arrives. Wait times are recorded.
+class ChargingStationPool {
+    public static final long RESERVATION_HORIZON_MILLIS = 60_000;
+
+    private static final class Request {
+        final AGV agv;
+        final long since;
+        final boolean reserved;
+        final CompletableFuture<ChargingStation> grant = new CompletableFuture<>();
+
+        Request(AGV agv, long since, boolean reserved) {
+            this.agv = agv;
+            this.since = since;
+            this.reserved = reserved;
+        }
+    }
+
+    private final List<ChargingStation> stations;
+    private final Set<ChargingStation> busy = new HashSet<>();
+    private final ArrayDeque<Request> waiting = new ArrayDeque<>();
+    private final Map<AGV, Long> reservations = new HashMap<>();   // AGV -> expected arrival
+    private final LatencyStats waitStats = new LatencyStats();    // milliseconds
+    private int requests;
+    private int immediate;
+    private int maxQueue;
+
+    public ChargingStationPool(List<ChargingStation> stations) {
+        this.stations = new ArrayList<>(stations);
+    }
+
+    public synchronized CompletableFuture<ChargingStation> request(AGV agv) {
+        requests++;
+        boolean reserved = reservations.remove(agv) != null;
+        Request request = new Request(agv, CapstoneProject.scheduler.now(), reserved);
+        if (reserved) {
+            waiting.addFirst(request);
+        } else {
+            waiting.addLast(request);
+        }
+        grantWaiting();
+        if (request.grant.isDone()) {
+            immediate++;
+        } else {
+            maxQueue = Math.max(maxQueue, waiting.size());
+            CapstoneProject.router.log("[CHARGING] AGV#" + agv.getId() + " waiting for a station, "
+                    + waiting.size() + " in line", LogCategory.BATTERY);
+        }
+        return request.grant;
+    }
+
+    public synchronized void release(ChargingStation station) {
+        busy.remove(station);
+        grantWaiting();
+    }
+
+    // Expect agv at a station around dueAt
+    public synchronized void reserve(AGV agv, long dueAt) {
+        reservations.put(agv, dueAt);
+    }
+
+    public synchronized void cancelReservation(AGV agv) {
+        reservations.remove(agv);
+    }
+
+    private void grantWaiting() {
+        while (!waiting.isEmpty()) {
+            Request head = waiting.peek();
+            int available = stations.size() - busy.size();
+            if (available - (head.reserved ? 0 : heldBack()) <= 0) return;
+            ChargingStation station = nearestFree(head.agv.getPosition());
+            waiting.poll();
+            busy.add(station);
+            long waited = CapstoneProject.scheduler.now() - head.since;
+            waitStats.record(waited);
+            CapstoneProject.metrics.chargeWait().record(waited);
+            head.grant.complete(station);
+        }
+    }
+
+    // Stations kept free for reservations that are due soon; stale ones are dropped. At least
+    // one station always serves the line, so a reservation that never shows up can't stall it.
+    private int heldBack() {
+        long now = CapstoneProject.scheduler.now();
+        reservations.values().removeIf(dueAt -> dueAt + RESERVATION_HORIZON_MILLIS < now);
+        int held = 0;
+        for (long dueAt : reservations.values()) {
+            if (dueAt <= now + RESERVATION_HORIZON_MILLIS) held++;
+        }
+        return Math.min(held, stations.size() - 1);
+    }
+
+    private ChargingStation nearestFree(Position from) {
+        ChargingStation nearest = null;
+        long best = Long.MAX_VALUE;
+        for (ChargingStation station : stations) {
+            if (busy.contains(station)) continue;
+            long distance = AGV.travelMillis(from, station.getPosition());
+            if (distance < best) {
+                nearest = station;
+                best = distance;
+            }
+        }
+        return nearest;
+    }
+
+    public synchronized int waitingCount() {
+        return waiting.size();
+    }
+
+    public List<ChargingStation> getStationList() {
+        return Collections.unmodifiableList(stations);
+    }
+
+    public synchronized LatencyStats getWaitStats() {
+        return waitStats;
+    }
+
+    public synchronized String summary() {
+        return requests + " request(s), " + immediate + " served at once, longest line " + maxQueue
+                + ", wait " + waitStats.summary("ms");
+    }
+}
+
+// ========================
+// Fleet Dispatcher
+// ========================
+// Holds N AGVs and a queue of pending store/retrieve jobs. A job goes to the AGV with the
+// best score: battery left after the jobs it already has, minus the route length (GridPlanner)
+// from where it will be to where the job starts, minus a penalty per job it already has. Every AGV works
+// through its own short queue as its own process (TaskScheduler.spawn), so jobs on different
+// AGVs run at the same time. An AGV that is low after a job hands its queued jobs back and
+// waits for the nearest free station from the ChargingStationPool; jobs stay pending while no
+// AGV can take them.
+class FleetDispatcher {
+    public static final int MAX_JOBS_PER_AGV = 2;     // running + queued
+    private static final double DISTANCE_WEIGHT = 1.0; // battery points per grid cell
+    private static final double LOAD_WEIGHT = 30.0;    // battery points per job already assigned
+    private static final double JOB_DRAIN = 30.0;      // rough battery use of one job
+    private static final long JOB_MILLIS = 60_000;     // rough duration of one job
+
+    private static final class Job {
+        final boolean store;
+        final Box box;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Job(boolean store, Box box) {
+            this.store = store;
+            this.box = box;
+        }
+
+        Position start() {
+            return store ? Process.PICKUP_POS : box.getPosition();
+        }
+    }
+
+    private final List<AGV> fleet;
+    private final StorageArea area;
+    private final Map<AGV, ArrayDeque<Job>> queues = new HashMap<>();
+    private final Set<AGV> working = new HashSet<>();
+    private final ArrayDeque<Job> pending = new ArrayDeque<>();
+    private final ChargingStationPool stations;
+    private final Ownership ownership = new Ownership();
+
+    public FleetDispatcher(List<AGV> fleet, List<ChargingStation> stations, StorageArea area) {
+        this.fleet = new ArrayList<>(fleet);
+        this.stations = new ChargingStationPool(stations);
+        this.area = area;
+        for (AGV agv : fleet) {
+            queues.put(agv, new ArrayDeque<>());
+            CapstoneProject.metrics.registerAgv(agv.getId());
+        }
+    }
+
+    // The box gets a slot when an AGV starts on it
+    public CompletableFuture<Void> submitStore(Box box) {
+        return submit(new Job(true, box));
+    }
+
+    public CompletableFuture<Void> submitRetrieve(Box box) {
+        return submit(new Job(false, box));
+    }
+
+    private synchronized CompletableFuture<Void> submit(Job job) {
+        pending.add(job);
+        dispatch();
+        return job.done;
+    }
+
+    // Wait for a submitted job; a failed job rethrows its ProcessException
+    public static void await(CompletableFuture<Void> job) throws ProcessException {
+        try {
+            CapstoneProject.scheduler.await(job);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ProcessException) throw (ProcessException) e.getCause();
+            throw e;
+        }
+    }
+
+    // Hand out pending jobs in arrival order while some AGV can take the next one
+    private synchronized void dispatch() {
+        while (!pending.isEmpty()) {
+            Job job = pending.peek();
+            AGV agv = best(job);
+            if (agv == null) return;
+            pending.poll();
+            ArrayDeque<Job> queue = queues.get(agv);
+            queue.add(job);
+            // this job will leave it low: book a station for when it gets there
+            int load = queue.size() + (working.contains(agv) ? 1 : 0);
+            if (agv.getBattery().getLevel() - load * JOB_DRAIN < Battery.LOW_LEVEL) {
+                stations.reserve(agv, CapstoneProject.scheduler.now() + load * JOB_MILLIS);
+            }
+            startNext(agv);
+        }
+    }
+
+    private AGV best(Job job) {
+        AGV best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (AGV agv : fleet) {
+            Battery battery = agv.getBattery();
+            ArrayDeque<Job> queue = queues.get(agv);
+            int load = queue.size() + (working.contains(agv) ? 1 : 0);
+            if (load >= MAX_JOBS_PER_AGV || battery.isCharging()) continue;
+
+            double projected = battery.getLevel() - load * JOB_DRAIN;
+            if (projected < Battery.LOW_LEVEL) continue;
+            Position from = queue.isEmpty() ? agv.getPosition() : queue.peekLast().start();
+            int cells = CapstoneProject.planner.distance(from, job.start());
+            if (cells < 0) continue;   // no route to the job
+            double score = projected - DISTANCE_WEIGHT * cells - LOAD_WEIGHT * load;
+            if (score > bestScore) {
+                best = agv;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private synchronized void startNext(AGV agv) {
+        if (working.contains(agv)) return;
+        Job job = queues.get(agv).poll();
+        if (job == null) return;
+        working.add(agv);
+        agv.setActive(true);
+        CapstoneProject.metrics.agvBusy(agv.getId());
+        CapstoneProject.scheduler.spawn("AGV#" + agv.getId(), () -> run(agv, job));
+    }
+
+    // The job owns its AGV and slot for as long as it runs
+    private void run(AGV agv, Job job) {
+        String owner = (job.store ? "store Box#" : "retrieve Box#") + job.box.getId();
+        String slot = null;
+        try {
+            ownership.claim(agv, owner);
+            if (job.store) {
+                slot = store(agv, job.box, owner);
+            } else {
+                slot = Ownership.slot(job.box.getRow(), job.box.getColumn());
+                ownership.claim(slot, owner);
+                Retrieving retrieveProcess = new Retrieving(agv, job.box, area);
+                retrieveProcess.executeTimed();
+                retrieveProcess.logProcess();
+            }
+            job.done.complete(null);
+        } catch (ProcessException | RuntimeException e) {
+            job.done.completeExceptionally(e);
+        } finally {
+            if (slot != null) ownership.release(slot, owner);
+            ownership.release(agv, owner);
+            finished(agv);
+        }
+    }
+
+    // Returns the claimed slot so run() can release it
+    private String store(AGV agv, Box box, String owner) throws ProcessException {
+        // a slot just emptied by a retrieval is still owned until that job ends, skip it
+        List<Position> skipped = new ArrayList<>();
+        Position slot;
+        String slotKey;
+        while (true) {
+            slot = area.claimEmptySlot();
+            if (slot == null) {
+                for (Position busy : skipped) area.releaseSlot(busy);
+                throw new StorageFullException("Storage area is full! Cannot store Box#" + box.getId());
+            }
+            slotKey = Ownership.slot(slot.getRow(), slot.getCol());
+            if (ownership.tryClaim(slotKey, owner)) break;
+            skipped.add(slot);
+        }
+        for (Position busy : skipped) area.releaseSlot(busy);
+        box.setPosition(slot.getRow(), slot.getCol());
+        Storing storeProcess = new Storing(agv, box, area);
+        boolean handedOver = false;   // once returned, run() releases the key
+        try {
+            try {
+                storeProcess.executeTimed();
+            } finally {
+                Box stored = area.getBoxAt(slot.getRow(), slot.getCol());
+                if (stored == null || !stored.getId().equals(box.getId())) {
+                    area.releaseSlot(slot);
+                    storeProcess.status = "Failed";
+                }
+            }
+            storeProcess.logProcess();
+            if (storeProcess.status.equals("Failed")) {
+                throw new ProcessException("Box#" + box.getId() + " could not be stored at " + slot);
+            }
+            handedOver = true;
+            return slotKey;
+        } finally {
+            if (!handedOver) ownership.release(slotKey, owner);
+        }
+    }
+
+    private void finished(AGV agv) {
+        agv.setActive(false);
+        CapstoneProject.metrics.agvIdle(agv.getId());
+        if (agv.getBattery().isLow()) {
+            goCharge(agv);
+        } else if (queuedFor(agv) == 0) {
+            stations.cancelReservation(agv);   // predicted to run low, but didn't
+        }
+        synchronized (this) {
+            working.remove(agv);
+            startNext(agv);
+            dispatch();
+        }
+    }
+
+    private synchronized int queuedFor(AGV agv) {
+        return queues.get(agv).size();
+    }
+
+    // Runs on the AGV's own process: waiting for a station and the drive there both take time
+    private void goCharge(AGV agv) {
+        synchronized (this) {
+            // its queued jobs go back to the front of the line for the other AGVs
+            ArrayDeque<Job> queue = queues.get(agv);
+            while (!queue.isEmpty()) {
+                pending.addFirst(queue.pollLast());
+            }
+            dispatch();
+        }
+        CompletableFuture<ChargingStation> grant = stations.request(agv);
+        CapstoneProject.scheduler.await(grant);
+        ChargingStation station = grant.join();
+
+        String owner = "charge AGV#" + agv.getId();
+        try {
+            ownership.claim(station, owner);
+        } catch (ProcessException e) {
+            CapstoneProject.router.error("[CHARGING ERROR] " + e.getMessage(), LogCategory.SYSTEM);
+            stations.release(station);
+            return;
+        }
+        if (!station.assignAGV(agv).ok()) {
+            ownership.release(station, owner);
+            stations.release(station);
+            return;
+        }
+        station.chargeAGVAsync().whenComplete((result, error) -> {
+            ownership.release(station, owner);
+            stations.release(station);
+            synchronized (this) {
+                dispatch();
+            }
+        });
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    public List<AGV> getFleet() {
+        return Collections.unmodifiableList(fleet);
+    }
+
+    public ChargingStationPool getStations() {
+        return stations;
+    }
+
+    public void displayInfo() {
+        for (AGV agv : fleet) {
+            agv.displayInfo();
+        }
+        CapstoneProject.router.event("[INFO] Charging: " + stations.summary(), LogCategory.BATTERY);
+    }
+}
+
+
+// ========================
+// User-defined Exception
+// ========================
+class StorageException extends Exception {
+    public StorageException(String message) {
+        super(message);
+    }
+}
+
+// ========================
+// StorageSystem Subclasses with Exception Handling
+// ========================
+// Box counters live in CapstoneProject.metrics, safe to update from concurrent processes
+abstract class StorageSystem {
+    protected static MetricsRegistry metrics() {
+        return CapstoneProject.metrics;
+    }
+
+    protected abstract void recordEvent(Box box);
+
+    protected abstract void displayLog();
+}
+
+class isBoxEntered extends StorageSystem {
+    @Override
+    protected void recordEvent(Box box) {
+        if (box == null) {
+            System.err.println("[ERROR] Cannot enter a null box!");
+            return;
+        }
+        CapstoneProject.persistence.recordEntered();
+        CapstoneProject.router.event("[EVENT] Box#" + box.getId() + " entered", LogCategory.SYSTEM);
+    }
+
+    @Override
+    protected void displayLog() {
+        CapstoneProject.router.event("[INFO] Total boxes entered: " + metrics().boxesEntered(), LogCategory.SYSTEM);
+    }
+}
+
+class isBoxStored extends StorageSystem {
+    @Override
+    protected void recordEvent(Box box) {
+        if (box == null) {
+            System.err.println("[ERROR] Cannot store a null box!");
+            return;
+        }
+        CapstoneProject.router.event("[EVENT] Box#" + box.getId() + " stored", LogCategory.SYSTEM);
+    }
+
+    @Override
+    protected void displayLog() {
+        CapstoneProject.router.event("[INFO] Total boxes stored: " + metrics().boxesInStorage());
+    }
+}
+
+class isBoxExited extends StorageSystem {
+    @Override
+    protected void recordEvent(Box box) {
+        if (box == null) {
+            System.err.println("[ERROR] Cannot exit a null box!");
+            return;
+        }
+        CapstoneProject.persistence.recordExited();
+        CapstoneProject.router.event("[EVENT] Box#" + box.getId() + " exited", LogCategory.SYSTEM);
+    }
+
+    @Override
+    protected void displayLog() {
+        CapstoneProject.router.event("[INFO] Total boxes exited: " + metrics().boxesExited());
+    }
+}
+
+// ========================
+// Storage Persistence
+// ========================
+// Write-ahead journal (Data/storage.wal) plus periodic snapshot (Data/storage.snapshot).
+// Every store/retrieve and box counter change is appended as a length+CRC framed record;
+// a committer thread writes and fsyncs whatever has queued up since its last pass (group
+// commit) and callers wait for their own record. Every snapshotEvery records the whole
+// area is written to a temp file, fsynced, renamed over the snapshot and the journal is
+// truncated, so recovery is always "load snapshot + replay at most snapshotEvery records".
+class StoragePersistence {
+    private static final int SNAPSHOT_MAGIC = 0x57534e32;        // "WSN2": magic, backend name, counters, boxes
+    private static final int SNAPSHOT_MAGIC_OBJECTS = 0x57534e50; // "WSNP": older snapshots, always OBJECTS
+    private static final byte OP_STORE = 1;
+    private static final byte OP_RETRIEVE = 2;
+    private static final byte OP_ENTERED = 3;
+    private static final byte OP_EXITED = 4;
+    private static final byte[] NOT_JOURNALED = new byte[0]; // encodeStore() while disabled
+
+    private final boolean enabled;
+    private final File snapshotFile;
+    private final File journalFile;
+    private final int snapshotEvery;
+    private final long commitIntervalMs;
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    private FileChannel journal;
+    private StorageArea area;
+    private Thread committer;
+
+    // Guarded by state; writers wait on committed, the committer on queued. A lock rather
+    // than a monitor so a virtual thread waiting for its group commit unmounts from its carrier
+    private final ReentrantLock state = new ReentrantLock();
+    private final Condition queued = state.newCondition();
+    private final Condition committed = state.newCondition();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appendedSeq;
+    private long committedSeq;
+    private int sinceSnapshot;
+    private boolean closed;
+    private boolean failed;   // a journal write failed; no change is accepted after that
+
+    private StoragePersistence(boolean enabled, File folder, int snapshotEvery, long commitIntervalMs) {
+        this.enabled = enabled;
+        this.snapshotFile = folder == null ? null : new File(folder, "storage.snapshot");
+        this.journalFile = folder == null ? null : new File(folder, "storage.wal");
+        this.snapshotEvery = snapshotEvery;
+        this.commitIntervalMs = commitIntervalMs;
+    }
+
+    // Persistence that records nothing (the default for areas that were not recovered)
+    public static StoragePersistence disabled() {
+        return new StoragePersistence(false, null, 0, 0);
+    }
+
+    public static StoragePersistence open(String folderPath, int snapshotEvery, long commitIntervalMs)
+            throws StorageException {
+        if (snapshotEvery <= 0) throw new StorageException("Snapshot interval must be positive.");
+        File folder = new File(folderPath);
+        if (!folder.exists() && !folder.mkdirs() && !folder.exists()) {
+            throw new StorageException("Failed to create folder path: " + folderPath);
+        }
+        return new StoragePersistence(true, folder, snapshotEvery, Math.max(0, commitIntervalMs));
+    }
+
+    // Load the latest snapshot, replay the journal tail and start journaling the returned area
+    public StorageArea recover(int rows, int cols, boolean concurrent) throws StorageException {
+        return recover(rows, cols, concurrent, ShelfBackend.OBJECTS);
+    }
+
+    // backend is used for a fresh area; a snapshot is rebuilt with the backend it was taken from
+    public StorageArea recover(int rows, int cols, boolean concurrent, ShelfBackend backend) throws StorageException {
+        if (!enabled) return new StorageArea(rows, cols, concurrent, backend);
+        StorageArea recovered = new StorageArea(rows, cols, concurrent, snapshotBackend(backend));
+
+        long start = System.nanoTime();
+        int boxes = loadSnapshot(recovered);
+        int replayed;
+        try {
+            replayed = replayJournal(recovered);
+            journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new StorageException("I/O error while recovering storage: " + e.getMessage());
+        }
+        sinceSnapshot = replayed;
+        area = recovered;
+        recovered.attachPersistence(this);
+
+        committer = new Thread(this::commitLoop, "storage-journal");
+        committer.setDaemon(true);
+        committer.start();
+
+        System.out.println("[INFO] Recovered storage: " + boxes + " box(es) from snapshot, " + replayed
+                + " journal record(s) replayed in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return recovered;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // ---- writers, called by StorageArea and the StorageSystem counters ----
+
+    // Taken around every change so a snapshot never falls between a change and its record
+    public void beginChange() {
+        if (enabled) snapshotLock.readLock().lock();
+    }
+
+    // Release the change lock, wait for the group commit holding seq, snapshot when due.
+    // false when the record was refused (seq < 0) or never reached the disk.
+    public boolean endChange(long seq) {
+        if (!enabled) return true;
+        snapshotLock.readLock().unlock();
+        if (seq < 0) return false;
+        boolean durable = seq == 0 || awaitCommitted(seq);
+        boolean due;
+        state.lock();
+        try {
+            due = sinceSnapshot >= snapshotEvery && !closed && !failed;
+        } finally {
+            state.unlock();
+        }
+        if (due) snapshot();
+        return durable;
+    }
+
+    // The store record, encoded before the area changes so a box that cannot be journaled
+    // (a field over 64 KB of UTF-8) is never stored; null in that case
+    public byte[] encodeStore(int row, int col, Box box) {
+        if (!enabled) return NOT_JOURNALED;
+        return encode(out -> {
+            out.writeByte(OP_STORE);
+            out.writeInt(row);
+            out.writeInt(col);
+            out.writeUTF(box.getId());
+            out.writeUTF(box.getWeight());
+            out.writeUTF(box.getContent());
+        });
+    }
+
+    // Sequence number of the queued record, 0 when nothing is journaled, -1 when refused
+    public long logRetrieve(int row, int col, String boxId) {
+        if (!enabled) return 0;
+        byte[] record = encode(out -> {
+            out.writeByte(OP_RETRIEVE);
+            out.writeInt(row);
+            out.writeInt(col);
+            out.writeUTF(boxId);
+        });
+        return record == null ? -1 : append(record);
+    }
+
+    // Count a box in and journal it; the counter changes under the change lock, so a
+    // snapshot holds either both the count and the record's effect or neither
+    public void recordEntered() {
+        recordCounter(OP_ENTERED);
+    }
+
+    public void recordExited() {
+        recordCounter(OP_EXITED);
+    }
+
+    private void recordCounter(byte op) {
+        MetricsRegistry metrics = CapstoneProject.metrics;
+        if (!enabled || journal == null) {
+            if (op == OP_ENTERED) metrics.boxEntered();
+            else metrics.boxExited();
+            return;
+        }
+        beginChange();
+        long seq = 0;
+        try {
+            if (op == OP_ENTERED) metrics.boxEntered();
+            else metrics.boxExited();
+            seq = append(new byte[] {op});
+        } finally {
+            endChange(seq);
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(RecordWriter writer) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            writer.write(out);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not encode journal record: " + e.getMessage());
+            return null;
+        }
+        return payload.toByteArray();
+    }
+
+    // Frame as [int length][int crc32][payload] and queue it for the committer:
+    // the record's sequence number, 0 when nothing is journaled, -1 when refused
+    public long append(byte[] bytes) {
+        if (!enabled || bytes == NOT_JOURNALED) return 0;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        state.lock();
+        try {
+            if (failed) return -1;
+            if (closed) return 0;
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(bytes.length).putInt((int) crc.getValue());
+            pending.write(header.array(), 0, 8);
+            pending.write(bytes, 0, bytes.length);
+            sinceSnapshot++;
+            queued.signal();
+            return ++appendedSeq;
+        } finally {
+            state.unlock();
+        }
+    }
+
+    // true once the record with seq is on disk, false if the journal failed or closed first
+    private boolean awaitCommitted(long seq) {
+        state.lock();
+        try {
+            while (committedSeq < seq && !closed && !failed) {
+                committed.awaitUninterruptibly();
+            }
+            return committedSeq >= seq;
+        } finally {
+            state.unlock();
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            byte[] batch;
+            long upTo;
+            state.lock();
+            try {
+                while (pending.size() == 0 && !closed) {
+                    queued.awaitUninterruptibly();   // keep committing until close()
+                }
+                if (pending.size() == 0 && closed) return;
+            } finally {
+                state.unlock();
+            }
+            // Let concurrent writers join this commit
+            if (commitIntervalMs > 0) {
+                try {
+                    Thread.sleep(commitIntervalMs);
+                } catch (InterruptedException e) {
+                    // commit now
+                }
+            }
+            state.lock();
+            try {
+                batch = pending.toByteArray();
+                pending.reset();
+                upTo = appendedSeq;
+            } finally {
+                state.unlock();
+            }
+            long validLength = -1;
+            try {
+                validLength = journal.size();
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    journal.write(buffer);
+                }
+                journal.force(false);
+            } catch (IOException e) {
+                // Nothing of this batch counts: cut off what did get written, wake the
+                // waiting changes (they undo themselves) and refuse every later change
+                try {
+                    if (validLength >= 0) journal.truncate(validLength);
+                } catch (IOException ignored) {
+                    // replay cuts a torn tail anyway
+                }
+                state.lock();
+                try {
+                    failed = true;
+                    pending.reset();
+                    committed.signalAll();
+                } finally {
+                    state.unlock();
+                }
+                System.err.println("[ERROR] Storage journal write failed, storage changes are refused until restart: "
+                        + e.getMessage());
+                return;
+            }
+            state.lock();
+            try {
+                committedSeq = upTo;
+                committed.signalAll();
+            } finally {
+                state.unlock();
+            }
+        }
+    }
+
+    // Write the full area and counters, then start an empty journal
+    public void snapshot() {
+        if (!enabled || area == null) return;
+        snapshotLock.writeLock().lock();
+        try {
+            long seq;
+            state.lock();
+            try {
+                if (sinceSnapshot == 0) return;
+                seq = appendedSeq;
+            } finally {
+                state.unlock();
+            }
+            if (!awaitCommitted(seq)) return; // journal failed, leave snapshot and journal alone
+
+            File temp = new File(snapshotFile.getPath() + ".tmp");
+            List<Box> boxes = area.listBoxes();
+            try (FileOutputStream file = new FileOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeUTF(area.getBackend().name());
+                MetricsRegistry metrics = CapstoneProject.metrics;
+                out.writeInt((int) metrics.boxesInStorage());
+                out.writeInt((int) metrics.boxesEntered());
+                out.writeInt((int) metrics.boxesExited());
+                out.writeInt(boxes.size());
+                for (Box box : boxes) {
+                    out.writeInt(box.getRow());
+                    out.writeInt(box.getColumn());
+                    out.writeUTF(box.getId());
+                    out.writeUTF(box.getWeight());
+                    out.writeUTF(box.getContent());
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            journal.truncate(0);
+            journal.force(true);
+            state.lock();
+            try {
+                sinceSnapshot = 0;
+            } finally {
+                state.unlock();
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Storage snapshot failed: " + e.getMessage());
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // Backend recorded in the snapshot header, fallback when there is no snapshot yet
+    private ShelfBackend snapshotBackend(ShelfBackend fallback) throws StorageException {
+        if (!snapshotFile.exists()) return fallback;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            return readHeader(in);
+        } catch (IOException e) {
+            throw new StorageException("I/O error while reading snapshot: " + e.getMessage());
+        }
+    }
+
+    private static ShelfBackend readHeader(DataInputStream in) throws IOException, StorageException {
+        int magic = in.readInt();
+        if (magic == SNAPSHOT_MAGIC_OBJECTS) return ShelfBackend.OBJECTS;
+        if (magic != SNAPSHOT_MAGIC) throw new StorageException("Snapshot file is not a storage snapshot.");
+        String name = in.readUTF();
+        try {
+            return ShelfBackend.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new StorageException("Snapshot has an unknown shelf backend: " + name);
+        }
+    }
+
+    private int loadSnapshot(StorageArea target) throws StorageException {
+        if (!snapshotFile.exists()) return 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            readHeader(in);
+            int inStorage = in.readInt();
+            int entered = in.readInt();
+            int exited = in.readInt();
+            CapstoneProject.metrics.restoreBoxCounts(inStorage, entered, exited);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int row = in.readInt();
+                int col = in.readInt();
+                Box box = new Box(in.readUTF(), in.readUTF(), in.readUTF());
+                box.setPosition(row, col);
+                target.restoreBox(box);
+            }
+            return count;
+        } catch (IOException e) {
+            throw new StorageException("I/O error while reading snapshot: " + e.getMessage());
+        }
+    }
+
+    // Apply every intact journal record; a torn tail (crash mid-write) is cut off
+    private int replayJournal(StorageArea target) throws IOException {
+        if (!journalFile.exists()) return 0;
+        int replayed = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > 1 << 20) break;
+                int expectedCrc;
+                byte[] payload = new byte[length];
+                try {
+                    expectedCrc = in.readInt();
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != expectedCrc) break;
+
+                apply(target, new DataInputStream(new ByteArrayInputStream(payload)));
+                validLength += 8 + length;
+                replayed++;
+            }
+        }
+        if (validLength < journalFile.length()) {
+            try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+            System.err.println("[WARN] Storage journal had a torn tail, truncated to " + validLength + " bytes.");
+        }
+        return replayed;
+    }
+
+    private void apply(StorageArea target, DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case OP_STORE: {
+                int row = in.readInt();
+                int col = in.readInt();
+                Box box = new Box(in.readUTF(), in.readUTF(), in.readUTF());
+                box.setPosition(row, col);
+                target.restoreBox(box);
+                break;
+            }
+            case OP_RETRIEVE: {
+                int row = in.readInt();
+                int col = in.readInt();
+                target.removeRestored(row, col, in.readUTF());
+                break;
+            }
+            case OP_ENTERED:
+                CapstoneProject.metrics.boxEntered();
+                break;
+            case OP_EXITED:
+                CapstoneProject.metrics.boxExited();
+                break;
+            default:
+                throw new IOException("Unknown journal record.");
+        }
+    }
+
+    // Commit everything queued, stop the committer and close the journal
+    public void close() {
+        if (!enabled || journal == null) return;
+        long seq;
+        state.lock();
+        try {
+            seq = appendedSeq;
+        } finally {
+            state.unlock();
+        }
+        awaitCommitted(seq);
+        state.lock();
+        try {
+            closed = true;
+            queued.signal();
+            committed.signalAll();
+        } finally {
+            state.unlock();
+        }
+        try {
+            committer.join();
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not close storage journal: " + e.getMessage());
+        }
+    }
+}
+
+// ========================
+// Metrics Registry
+// ========================
+// Box counters, process latencies, AGV busy time and charge waits, shared by every process.
+// Writers only add to striped cells (LongAdder) or bump a single atomic bucket, never take a
+// lock, so AGV processes recording at the same time don't serialize on the metrics. snapshot()
+// reads the cells while writers keep going; a snapshot taken mid-update may miss updates
+// still in flight, never double-counts them.
+class MetricsRegistry {
+    private static final class AgvUsage {
+        final long since;                       // scheduler millis when the AGV joined
+        final LongAdder busyMillis = new LongAdder();
+        volatile long busySince = -1;           // -1 while idle
+
+        AgvUsage(long since) {
+            this.since = since;
+        }
+    }
+
+    private final LongAdder boxesEntered = new LongAdder();
+    private final LongAdder boxesExited = new LongAdder();
+    private final LongAdder boxesInStorage = new LongAdder();
+    private final LatencyHistogram storeMicros = new LatencyHistogram();
+    private final LatencyHistogram retrieveMicros = new LatencyHistogram();
+    private final LatencyHistogram chargeWaitMillis = new LatencyHistogram();
+    private final ConcurrentHashMap<String, AgvUsage> agvs = new ConcurrentHashMap<>();
+
+    public void boxEntered() {
+        boxesEntered.increment();
+        boxesInStorage.increment();
+    }
+
+    public void boxExited() {
+        boxesExited.increment();
+        boxesInStorage.decrement();
+    }
+
+    // Counter values recovered from a snapshot; only called before any process runs
+    public void restoreBoxCounts(long inStorage, long entered, long exited) {
+        boxesInStorage.reset();
+        boxesInStorage.add(inStorage);
+        boxesEntered.reset();
+        boxesEntered.add(entered);
+        boxesExited.reset();
+        boxesExited.add(exited);
+    }
+
+    public long boxesEntered() {
+        return boxesEntered.sum();
+    }
+
+    public long boxesExited() {
+        return boxesExited.sum();
+    }
+
+    public long boxesInStorage() {
+        return boxesInStorage.sum();
+    }
+
+    public LatencyHistogram storeLatency() {
+        return storeMicros;
+    }
+
+    public LatencyHistogram retrieveLatency() {
+        return retrieveMicros;
+    }
+
+    public LatencyHistogram chargeWait() {
+        return chargeWaitMillis;
+    }
+
+    public void registerAgv(String id) {
+        agvs.putIfAbsent(id, new AgvUsage(CapstoneProject.scheduler.now()));
+    }
+
+    // An AGV is busy from the start of a job until it is idle again
+    public void agvBusy(String id) {
+        AgvUsage usage = agvs.get(id);
+        if (usage != null && usage.busySince < 0) usage.busySince = CapstoneProject.scheduler.now();
+    }
+
+    public void agvIdle(String id) {
+        AgvUsage usage = agvs.get(id);
+        if (usage == null || usage.busySince < 0) return;
+        usage.busyMillis.add(CapstoneProject.scheduler.now() - usage.busySince);
+        usage.busySince = -1;
+    }
+
+    // "1 42%, 2 37%, ..." for display
+    public static String percentages(Map<String, Double> shares) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Double> entry : shares.entrySet()) {
+            if (text.length() > 0) text.append(", ");
+            text.append(entry.getKey()).append(' ').append(Math.round(entry.getValue() * 100)).append('%');
+        }
+        return text.toString();
+    }
+
+    public Snapshot snapshot() {
+        long now = CapstoneProject.scheduler.now();
+        Map<String, Double> utilization = new TreeMap<>();
+        for (Map.Entry<String, AgvUsage> entry : agvs.entrySet()) {
+            AgvUsage usage = entry.getValue();
+            long busySince = usage.busySince;
+            long busy = usage.busyMillis.sum() + (busySince >= 0 ? now - busySince : 0);
+            long total = now - usage.since;
+            utilization.put(entry.getKey(), total <= 0 ? 0 : Math.min(1.0, (double) busy / total));
+        }
+        return new Snapshot(boxesEntered.sum(), boxesExited.sum(), boxesInStorage.sum(),
+                storeMicros.snapshot(), retrieveMicros.snapshot(), chargeWaitMillis.snapshot(), utilization);
+    }
+
+    // Point-in-time copy, safe to keep and read from any thread
+    static final class Snapshot {
+        final long entered;
+        final long exited;
+        final long inStorage;
+        final LatencyHistogram.Snapshot store;        // microseconds
+        final LatencyHistogram.Snapshot retrieve;     // microseconds
+        final LatencyHistogram.Snapshot chargeWait;   // milliseconds
+        final Map<String, Double> agvUtilization;     // AGV id -> busy share 0..1
+
+        Snapshot(long entered, long exited, long inStorage, LatencyHistogram.Snapshot store,
+                 LatencyHistogram.Snapshot retrieve, LatencyHistogram.Snapshot chargeWait,
+                 Map<String, Double> agvUtilization) {
+            this.entered = entered;
+            this.exited = exited;
+            this.inStorage = inStorage;
+            this.store = store;
+            this.retrieve = retrieve;
+            this.chargeWait = chargeWait;
+            this.agvUtilization = Collections.unmodifiableMap(agvUtilization);
+        }
+    }
+}
+
+// Log-linear histogram: 8 buckets per power of two, so any recorded value is reported within
+// ~12% of what it was. record() is one atomic increment plus two striped adds.
+class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        buckets.incrementAndGet(bucket(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB) return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB - 1);
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    // Largest value that falls into the bucket
+    static long upperBound(int bucket) {
+        if (bucket < SUB) return bucket;
+        int exp = bucket / SUB + SUB_BITS - 1;
+        long sub = bucket % SUB;
+        return ((SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    public Snapshot snapshot() {
+        // the count comes from the copied buckets, so it always matches them
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, sum.sum(), max.get());
     }
 
-    public void storeBox(Box box) {
-        try {
-            int row = box.getRow();
-            int col = box.getColumn();
-            if (row < 0 || col < 0 || row >= rows || col >= cols) {
-                System.out.println("[ERROR] Invalid storage position " + box.getPosition());
-                CapstoneProject.systemLog.log("[ERROR] Invalid storage position " + box.getPosition());
-                CapstoneProject.overallLog.log("[ERROR] Invalid storage position " + box.getPosition());
-                throw new StorageAreaException("Invalid storage position " + box.getPosition());
-            }
+    static final class Snapshot {
+        final long[] buckets;
+        final long count;
+        final long sum;
+        final long max;
+
+        Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
 
-            if (shelves[row][col] == null) {
-                shelves[row][col] = box;
-                System.out.println("[STORAGE] Stored Box#" + box.getId() + " at " + box.getPosition());
-                CapstoneProject.systemLog.log("[STORAGE] Stored Box#" + box.getId() + " at " + box.getPosition());
-                CapstoneProject.overallLog.log("[STORAGE] Stored Box#" + box.getId() + " at " + box.getPosition());
-            } else {
-                System.out.println("[ERROR] Position " + box.getPosition() + " is occupied!");
-                CapstoneProject.systemLog.log("[ERROR] Position " + box.getPosition() + " is occupied!");
-                CapstoneProject.overallLog.log("[ERROR] Position " + box.getPosition() + " is occupied!");
-                throw new StorageAreaException("Position " + box.getPosition() + " is occupied!");
-            }
-        } catch (StorageAreaException e) {
-            System.err.println("[ERROR] " + e.getMessage());
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
         }
-    }
 
-    public Box retrieveBox(int row, int col) {
-        try {
-            if (row < 0 || col < 0 || row >= rows || col >= cols) {
-                System.out.println("[ERROR] Invalid retrieve position [" + row + "," + col + "]");
-                CapstoneProject.systemLog.log("[ERROR] Invalid retrieve position [" + row + "," + col + "]");
-                CapstoneProject.overallLog.log("[ERROR] Invalid retrieve position [" + row + "," + col + "]");
-                throw new StorageAreaException("Invalid retrieve position [" + row + "," + col + "]");
-            }
-
-            if (shelves[row][col] != null) {
-                Box box = shelves[row][col];
-                shelves[row][col] = null;
-                System.out.println("[RETRIEVE] Retrieved Box#" + box.getId() + " from [" + row + "," + col + "]");
-                CapstoneProject.systemLog.log("[RETRIEVE] Retrieved Box#" + box.getId() + " from [" + row + "," + col + "]");
-                CapstoneProject.overallLog.log("[RETRIEVE] Retrieved Box#" + box.getId() + " from [" + row + "," + col + "]");
-                return box;
-            } else {
-                System.out.println("[RETRIEVE] No box at [" + row + "," + col + "]");
-                CapstoneProject.systemLog.log("[RETRIEVE] No box at [" + row + "," + col + "]");
-                CapstoneProject.overallLog.log("[RETRIEVE] No box at [" + row + "," + col + "]");
-                throw new StorageAreaException("No box at [" + row + "," + col + "]");
+        // Nearest-rank percentile, p in 0..100, as the upper bound of its bucket
+        public long percentile(double p) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return Math.min(upperBound(i), max);
             }
-        } catch (StorageAreaException e) {
-            System.err.println("[ERROR] " + e.getMessage());
-            return null; // still must return something
+            return max;
         }
-    }
 
-    public void displayAllBoxes() {
-        System.out.println("=== Storage Area Contents ===");
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                Box box = shelves[i][j];
-                if (box != null) {
-                    System.out.println("Row " + i + ", Col " + j + " : " + box);
-                } else {
-                    System.out.println("Row " + i + ", Col " + j + ": [Empty]");
-                }
-            }
+        public String summary(String unit) {
+            return count + " op(s), mean " + String.format("%.1f", mean()) + " " + unit
+                    + ", p50 " + percentile(50) + " " + unit
+                    + ", p95 " + percentile(95) + " " + unit
+                    + ", p99 " + percentile(99) + " " + unit
+                    + ", max " + max + " " + unit;
         }
     }
 }
 
 // ========================
-// ChargingStation Class
+// Metrics Endpoint
 // ========================
+// Serves GET /metrics in the Prometheus text format from the JDK's built-in HTTP server, on
+// the loopback interface only. Each scrape renders a fresh MetricsRegistry snapshot plus the
+// live storage, AGV and charging station state; it runs on the server's own daemon thread,
+// so scraping never waits on the menu loop and never writes to the log files. Histogram
+// buckets are the registry's own, each reported at its upper bound.
+class MetricsEndpoint {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final StorageArea area;
+    private final FleetDispatcher fleet;
+
+    private MetricsEndpoint(HttpServer server, ExecutorService executor, StorageArea area, FleetDispatcher fleet) {
+        this.server = server;
+        this.executor = executor;
+        this.area = area;
+        this.fleet = fleet;
+    }
 
-class ChargingStationException extends Exception {
-    public ChargingStationException(String message) {
-        super(message);
+    public static MetricsEndpoint start(int port, StorageArea area, FleetDispatcher fleet) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        MetricsEndpoint endpoint = new MetricsEndpoint(server, executor, area, fleet);
+        server.createContext("/metrics", endpoint::handle);
+        server.setExecutor(executor);
+        server.start();
+        return endpoint;
     }
-}
 
-class ChargingStation {
-    private String stationId;
-    private boolean isOccupied;
-    private AGV currentAGV;
-    private Position position;
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
 
-    public ChargingStation(String id, Position pos) {
-        this.stationId = id;
-        this.position = pos;
-        this.isOccupied = false;
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
     }
 
-    public void assignAGV(AGV agv) {
+    private void handle(HttpExchange exchange) throws IOException {
         try {
-            if (!isOccupied) {
-                currentAGV = agv;
-                isOccupied = true;
-                agv.moveTo(position);
-                System.out.println("[AGV] AGV#" + agv.getId() + " assigned to Charging Station#" + stationId);
-                CapstoneProject.agvLog.log("[AGV] AGV#" + agv.getId() + " assigned to Charging Station#" + stationId);
-                CapstoneProject.systemLog.log("[AGV] AGV#" + agv.getId() + " assigned to Charging Station#" + stationId);
-                CapstoneProject.overallLog.log("[AGV] AGV#" + agv.getId() + " assigned to Charging Station#" + stationId);
-            } else {
-                throw new ChargingStationException("Charging Station#" + stationId + " is already occupied by AGV#"
-                        + currentAGV.getId() + ". Cannot assign AGV#" + agv.getId());
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
             }
-        } catch (ChargingStationException e) {
-            System.err.println("[CHARGING ERROR] " + e.getMessage());
-            CapstoneProject.systemLog.log("[CHARGING ERROR] " + e.getMessage());
-            CapstoneProject.overallLog.log("[CHARGING ERROR] " + e.getMessage());
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
         }
     }
 
-    public void chargeAGV() {
-        try {
-            if (currentAGV != null) {
-                currentAGV.getBattery().recharge();
-                System.out.println("[AGV] AGV#" + currentAGV.getId() + " fully charged at Station#" + stationId);
-                CapstoneProject.agvLog.log("[AGV] AGV#" + currentAGV.getId() + " fully charged at Station#" + stationId);
-                CapstoneProject.batteryLog.log("[AGV] AGV#" + currentAGV.getId() + " fully charged at Station#" + stationId);
-                CapstoneProject.overallLog.log("[AGV] AGV#" + currentAGV.getId() + " fully charged at Station#" + stationId);
-                isOccupied = false;
-                currentAGV = null;
-            } else {
-                throw new ChargingStationException("No AGV assigned to Charging Station#" + stationId + " to charge.");
-            }
-        } catch (ChargingStationException e) {
-            System.err.println("[CHARGING ERROR] " + e.getMessage());
-            CapstoneProject.systemLog.log("[CHARGING ERROR] " + e.getMessage());
-            CapstoneProject.overallLog.log("[CHARGING ERROR] " + e.getMessage());
+    String render() {
+        MetricsRegistry.Snapshot snapshot = CapstoneProject.metrics.snapshot();
+        StringBuilder out = new StringBuilder(4096);
+
+        int slots = area.getRows() * area.getCols();
+        int stored = area.boxCount();
+        gauge(out, "warehouse_storage_slots", "Slots in the storage area.");
+        sample(out, "warehouse_storage_slots", "", slots);
+        gauge(out, "warehouse_storage_boxes", "Boxes on the shelves right now.");
+        sample(out, "warehouse_storage_boxes", "", stored);
+        gauge(out, "warehouse_storage_occupancy_ratio", "Share of slots holding a box.");
+        sample(out, "warehouse_storage_occupancy_ratio", "", slots == 0 ? 0 : (double) stored / slots);
+
+        counter(out, "warehouse_boxes_entered_total", "Boxes that entered the warehouse.");
+        sample(out, "warehouse_boxes_entered_total", "", snapshot.entered);
+        counter(out, "warehouse_boxes_exited_total", "Boxes that left the warehouse.");
+        sample(out, "warehouse_boxes_exited_total", "", snapshot.exited);
+        gauge(out, "warehouse_boxes_in_storage", "Boxes entered and not yet exited.");
+        sample(out, "warehouse_boxes_in_storage", "", snapshot.inStorage);
+
+        gauge(out, "warehouse_agv_battery_percent", "Battery level per AGV.");
+        for (AGV agv : fleet.getFleet()) {
+            sample(out, "warehouse_agv_battery_percent", label("agv", agv.getId()), agv.getBattery().getLevel());
         }
+        gauge(out, "warehouse_agv_charging", "1 while the AGV is on a charger.");
+        for (AGV agv : fleet.getFleet()) {
+            sample(out, "warehouse_agv_charging", label("agv", agv.getId()), agv.getBattery().isCharging() ? 1 : 0);
+        }
+        gauge(out, "warehouse_agv_utilization_ratio", "Share of time the AGV spent on jobs.");
+        for (Map.Entry<String, Double> entry : snapshot.agvUtilization.entrySet()) {
+            sample(out, "warehouse_agv_utilization_ratio", label("agv", entry.getKey()), entry.getValue());
+        }
+
+        ChargingStationPool stations = fleet.getStations();
+        gauge(out, "warehouse_charging_station_occupied", "1 while an AGV is assigned to the station.");
+        for (ChargingStation station : stations.getStationList()) {
+            sample(out, "warehouse_charging_station_occupied", label("station", station.getId()), station.isOccupied() ? 1 : 0);
+        }
+        gauge(out, "warehouse_charging_queue_length", "AGVs waiting for a free station.");
+        sample(out, "warehouse_charging_queue_length", "", stations.waitingCount());
+
+        out.append("# HELP warehouse_process_duration_microseconds Time spent in Storing/Retrieving execute.\n");
+        out.append("# TYPE warehouse_process_duration_microseconds histogram\n");
+        histogram(out, "warehouse_process_duration_microseconds", label("process", "store"), snapshot.store);
+        histogram(out, "warehouse_process_duration_microseconds", label("process", "retrieve"), snapshot.retrieve);
+        out.append("# HELP warehouse_charge_wait_milliseconds Time an AGV waited for a charging station.\n");
+        out.append("# TYPE warehouse_charge_wait_milliseconds histogram\n");
+        histogram(out, "warehouse_charge_wait_milliseconds", "", snapshot.chargeWait);
+        return out.toString();
     }
-}
 
+    private static void gauge(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+    }
 
-// ========================
-// Abstract Process
-// ========================
+    private static void counter(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+    }
 
-class ProcessException extends Exception {
-    public ProcessException(String message) {
-        super(message);
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) out.append((long) value);
+        else out.append(value);
+        out.append('\n');
+    }
+
+    // One cumulative bucket per registry bucket up to the last non-empty one, then +Inf, _sum
+    // and _count. Recorded values are whole numbers, so a bucket's upper bound is an exact le.
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram.Snapshot h) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        int last = h.buckets.length - 1;
+        while (last >= 0 && h.buckets[last] == 0) last--;
+        long cumulative = 0;
+        for (int bucket = 0; bucket <= last; bucket++) {
+            cumulative += h.buckets[bucket];
+            String le = String.valueOf(LatencyHistogram.upperBound(bucket));
+            sample(out, name + "_bucket", prefix + label("le", le), cumulative);
+        }
+        sample(out, name + "_bucket", prefix + label("le", "+Inf"), h.count);
+        sample(out, name + "_sum", labels, h.sum);
+        sample(out, name + "_count", labels, h.count);
+    }
+
+    private static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
     }
 }
 
-abstract class Process {
-    protected AGV activeAGV;
-    protected AGV standbyAGV;
-    protected Box box;
-    protected StorageArea storageArea;
-    protected ChargingStation station;
-    protected String status;
-    protected Position PICKUP_POS = new Position(-1, -1);
-    protected Position DROPOFF_POS = new Position(5, 5);
+// ========================
+// Span Tracer
+// ========================
+// Records how long each stage of a process takes (checkAGV, the whole Storing/Retrieving run,
+// AGV moves, pickup and drop, battery discharge, slot claim, store and retrieve, log router
+// and log writes, charging) into a ring buffer and writes it out as a Chrome trace JSON file
+// (chrome://tracing or Perfetto). Off by default: start() is then one volatile read and end()
+// returns at once, nothing is allocated. When on, the newest spans are kept and older ones
+// overwritten. Times come from CapstoneProject.scheduler, so a simulation traces virtual time.
+class Tracer {
+    public static final long OFF = Long.MIN_VALUE;   // start() result while tracing is off
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final class Span {
+        final String name;
+        final String category;
+        final String track;        // thread name, or what an async span belongs to
+        final long startNanos;
+        final long durationNanos;
+
+        Span(String name, String category, String track, long startNanos, long durationNanos) {
+            this.name = name;
+            this.category = category;
+            this.track = track;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
 
-    public Process(AGV active, AGV standby, Box box, StorageArea area, ChargingStation station) {
-        this.activeAGV = active;
-        this.standbyAGV = standby;
-        this.box = box;
-        this.storageArea = area;
-        this.station = station;
+    private static volatile boolean enabled;
+    private static volatile AtomicReferenceArray<Span> ring = new AtomicReferenceArray<>(1);
+    private static final AtomicLong next = new AtomicLong();
+
+    // Start keeping the newest capacity spans (rounded up to a power of two), dropping any older ones
+    public static synchronized void enable(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        ring = new AtomicReferenceArray<>(size);
+        next.set(0);
+        enabled = true;
     }
 
-    protected void checkAndSwapAGV() throws ProcessException {
-        if (activeAGV.getBattery().isLow()) {
-            System.out.println("[AGV] AGV#" + activeAGV.getId() + " low on battery. Switching with standby AGV.");
-            CapstoneProject.agvLog.log("[AGV] AGV#" + activeAGV.getId() + " low on battery. Switching with standby AGV.");
-            CapstoneProject.systemLog.log("[AGV] AGV#" + activeAGV.getId() + " low on battery. Switching with standby AGV.");
-            CapstoneProject.overallLog.log("[AGV] AGV#" + activeAGV.getId() + " low on battery. Switching with standby AGV.");
+    public static void disable() {
+        enabled = false;
+    }
 
-            // send active to charge
-            station.assignAGV(activeAGV);
-            station.chargeAGV();
+    public static boolean isEnabled() {
+        return enabled;
+    }
 
-            // if standby AGV is also low, throw exception
-            if (standbyAGV.getBattery().isLow()) {
-                throw new ProcessException("Both AGVs have low battery. Process cannot continue!");
-            }
+    public static long start() {
+        return enabled ? CapstoneProject.scheduler.nanoTime() : OFF;
+    }
 
-            // swap
-            AGV temp = activeAGV;
-            activeAGV = standbyAGV;
-            standbyAGV = temp;
-            activeAGV.setActive(true);
-            standbyAGV.setActive(false);
-        }
+    // Span on the calling thread's track
+    public static void end(String name, String category, long start) {
+        if (start == OFF) return;
+        record(name, category, Thread.currentThread().getName(), start);
     }
 
-    protected abstract void execute() throws ProcessException;
+    // Span that ends on another thread than it started, e.g. a charge finishing on the scheduler
+    public static void endOn(String track, String name, String category, long start) {
+        if (start == OFF) return;
+        record(name, category, track, start);
+    }
 
-    protected abstract void logProcess();
-}
+    private static void record(String name, String category, String track, long start) {
+        long duration = CapstoneProject.scheduler.nanoTime() - start;
+        AtomicReferenceArray<Span> buffer = ring;
+        long index = next.getAndIncrement();
+        buffer.set((int) (index & (buffer.length() - 1)), new Span(name, category, track, start, duration));
+    }
 
-// ========================
-// Storing Process
-// ========================
-class Storing extends Process {
-    public Storing(AGV active, AGV standby, Box box, StorageArea area, ChargingStation station) {
-        super(active, standby, box, area, station);
+    // Spans still in the buffer, oldest first
+    private static List<Span> spans() {
+        AtomicReferenceArray<Span> buffer = ring;
+        long end = next.get();
+        long begin = Math.max(0, end - buffer.length());
+        List<Span> spans = new ArrayList<>();
+        for (long i = begin; i < end; i++) {
+            Span span = buffer.get((int) (i & (buffer.length() - 1)));
+            if (span != null) spans.add(span);
+        }
+        return spans;
     }
 
-    @Override
-    protected void execute() throws ProcessException {
-        checkAndSwapAGV();
+    public static int size() {
+        return (int) Math.min(next.get(), ring.length());
+    }
 
-        if (box == null) {
-            throw new ProcessException("No box found to store!");
+    // Chrome trace event format: a complete ("X") event per span in microseconds, one
+    // track (tid) per thread name with its name as metadata
+    public static void exportChromeTrace(File file) throws IOException {
+        List<Span> spans = spans();
+        Map<String, Integer> tracks = new HashMap<>();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            boolean first = true;
+            for (Span span : spans) {
+                Integer tid = tracks.get(span.track);
+                if (tid == null) {
+                    tid = tracks.size() + 1;
+                    tracks.put(span.track, tid);
+                    first = separator(out, first);
+                    out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + tid
+                            + ",\"args\":{\"name\":" + quote(span.track) + "}}");
+                }
+                first = separator(out, first);
+                out.write("{\"name\":" + quote(span.name) + ",\"cat\":" + quote(span.category)
+                        + ",\"ph\":\"X\",\"pid\":1,\"tid\":" + tid
+                        + ",\"ts\":" + micros(span.startNanos) + ",\"dur\":" + micros(span.durationNanos) + "}");
+            }
+            out.write("\n]}\n");
         }
+    }
 
-        activeAGV.moveTo(PICKUP_POS);
-        activeAGV.pickUpBox(box);
+    // Stop tracing and write what was recorded (--trace on simulate and batch)
+    public static void finish(String path) {
+        disable();
+        try {
+            exportChromeTrace(new File(path));
+            System.out.println("[TRACE] " + size() + " span(s) written to " + path);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Could not write trace: " + e.getMessage());
+        }
+    }
 
-        activeAGV.moveTo(box.getPosition());
-        activeAGV.getBattery().discharge(20);
-        activeAGV.dropBox(storageArea);
+    private static boolean separator(Writer out, boolean first) throws IOException {
+        if (!first) out.write(",\n");
+        return false;
+    }
 
-        status = "Stored";
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
     }
 
-    @Override
-    protected void logProcess() {
-        System.out.println("[PROCESS] " + status + " Box#" + box.getId() + " by AGV#" + activeAGV.getId());
-        CapstoneProject.systemLog.log("[PROCESS] " + status + " Box#" + box.getId() + " by AGV#" + activeAGV.getId());
-        CapstoneProject.overallLog.log("[PROCESS] " + status + " Box#" + box.getId() + " by AGV#" + activeAGV.getId());
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') quoted.append('\\').append(c);
+            else if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+            else quoted.append(c);
+        }
+        return quoted.append('"').toString();
     }
 }
 
-
 // ========================
-// Retrieving Process
+// Latency Stats
 // ========================
-class Retrieving extends Process {
-    public Retrieving(AGV active, AGV standby, Box box, StorageArea area, ChargingStation station) {
-        super(active, standby, box, area, station);
+// Per-operation latencies (caller picks the unit), summarized at the end of a run
+class LatencyStats {
+    private long[] samples = new long[256];
+    private int count;
+    private long total;
+
+    public void record(long millis) {
+        if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+        samples[count++] = millis;
+        total += millis;
     }
 
-    @Override
-    protected void execute() throws ProcessException {
-        checkAndSwapAGV();
+    public int count() {
+        return count;
+    }
 
-        if (box == null) {
-            throw new ProcessException("No box assigned for retrieval!");
+    public double mean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    // Nearest-rank percentile, p in 0..100
+    public long percentile(double p) {
+        if (count == 0) return 0;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p / 100 * count);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    public String summary(String unit) {
+        return count + " op(s), mean " + String.format("%.1f", mean()) + " " + unit
+                + ", p50 " + percentile(50) + " " + unit
+                + ", p95 " + percentile(95) + " " + unit
+                + ", max " + percentile(100) + " " + unit;
+    }
+}
+
+// ========================
+// Warehouse Simulation
+// ========================
+// Runs a shift of random store/retrieve requests through the FleetDispatcher on a
+// VirtualTimeScheduler. Boxes arrive as a Poisson stream and the AGVs work them in
+// parallel in virtual time. --obstacles places pillars the GridPlanner routes around.
+// The same seed always gives the same report.
+class WarehouseSimulation {
+    private final VirtualTimeScheduler clock = new VirtualTimeScheduler();
+    private final Random random;
+    private final StorageArea area;
+    private final FleetDispatcher fleet;
+    private final List<Box> storedBoxes = new ArrayList<>();
+    private final LatencyStats storeLatency = new LatencyStats();
+    private final LatencyStats retrieveLatency = new LatencyStats();
+    private int arrivals;
+    private int rejected;   // area full, on arrival or when the queued store found no slot
+    private int failed;     // ProcessException
+
+    public WarehouseSimulation(long seed, int rows, int cols, int agvCount, int stationCount, int obstacles) {
+        random = new Random(seed);
+        CapstoneProject.random = random;   // battery levels etc. come from the same seed
+        CapstoneProject.scheduler = clock;
+        area = new StorageArea(rows, cols);
+        List<AGV> agvs = new ArrayList<>();
+        for (int i = 1; i <= agvCount; i++) {
+            agvs.add(new AGV(String.valueOf(i)));
+        }
+        List<ChargingStation> stations = new ArrayList<>();
+        for (int i = 0; i < stationCount; i++) {
+            stations.add(new ChargingStation("CS" + (i + 1), new Position(i, cols)));
+        }
+        CapstoneProject.planner = GridPlanner.forWarehouse(rows, cols, stations);
+        // pillars on random cells of the storage area, which then never get a box
+        for (int placed = 0, tries = 0; placed < obstacles && tries < rows * cols; tries++) {
+            int row = random.nextInt(rows), col = random.nextInt(cols);
+            if (!area.claimSlot(row, col)) continue;
+            CapstoneProject.planner.block(row, col);
+            placed++;
         }
+        fleet = new FleetDispatcher(agvs, stations, area);
+    }
 
-        int row = box.getRow();
-        int col = box.getColumn();
+    // Accept requests for shiftMillis of virtual time, then finish whatever is still queued
+    public void run(long shiftMillis, double arrivalsPerHour, double retrieveShare) {
+        double meanGap = 3_600_000.0 / arrivalsPerHour;
+        scheduleArrival(shiftMillis, meanGap, retrieveShare);
+        clock.run();
+    }
 
-        activeAGV.moveTo(box.getPosition());
-        activeAGV.pickUpBox(box);
+    private void scheduleArrival(long shiftMillis, double meanGap, double retrieveShare) {
+        long gap = (long) (-Math.log(1 - random.nextDouble()) * meanGap);
+        if (clock.now() + gap >= shiftMillis) return;
+        clock.schedule(gap, () -> {
+            arrive(retrieveShare);
+            scheduleArrival(shiftMillis, meanGap, retrieveShare);
+        });
+    }
 
-        Box retrieved = storageArea.retrieveBox(row, col);
-        if (retrieved != null) {
-            activeAGV.moveTo(DROPOFF_POS);
-            activeAGV.getBattery().discharge(15);
-            status = "Retrieved";
+    private void arrive(double retrieveShare) {
+        arrivals++;
+        long arrivedAt = clock.now();
+        if (!storedBoxes.isEmpty() && random.nextDouble() < retrieveShare) {
+            // swap-remove a random stored box
+            int i = random.nextInt(storedBoxes.size());
+            Box box = storedBoxes.get(i);
+            storedBoxes.set(i, storedBoxes.get(storedBoxes.size() - 1));
+            storedBoxes.remove(storedBoxes.size() - 1);
+            fleet.submitRetrieve(box).whenComplete((result, error) -> {
+                if (error != null) fail(error);
+                else retrieveLatency.record((clock.now() - arrivedAt) / 1000);
+            });
+        } else if (area.isFull()) {
+            rejected++;
         } else {
-            status = "Failed";
-            throw new ProcessException("Box could not be retrieved from storage!");
+            String weight = String.format("%.1f", 1 + random.nextDouble() * 49);
+            Box box = new Box("S" + arrivals, weight, "sim");
+            fleet.submitStore(box).whenComplete((result, error) -> {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof StorageFullException) {
+                    rejected++;   // filled up while it was queued
+                } else if (cause != null) {
+                    fail(cause);
+                } else {
+                    storedBoxes.add(box);
+                    storeLatency.record((clock.now() - arrivedAt) / 1000);
+                }
+            });
         }
     }
 
-    @Override
-    protected void logProcess() {
-        System.out.println("[PROCESS] " + status + " Box#" + box.getId() + " by AGV#" + activeAGV.getId());
-        CapstoneProject.systemLog.log("[PROCESS] " + status + " Box#" + box.getId() + " by AGV#" + activeAGV.getId());
-        CapstoneProject.overallLog.log("[PROCESS] " + status + " Box#" + box.getId() + " by AGV#" + activeAGV.getId());
+    private void fail(Throwable error) {
+        failed++;
+        CapstoneProject.router.log("[SIM] Request failed: " + error.getMessage(), LogCategory.SYSTEM);
     }
-}
 
+    public void printReport(long cpuMillis) {
+        double hours = clock.now() / 3_600_000.0;
+        int done = storeLatency.count() + retrieveLatency.count();
+        System.out.println("[SIM] Virtual time: " + String.format("%.2f", hours) + " h, requests: " + arrivals
+                + ", completed: " + done + ", rejected (full): " + rejected + ", failed: " + failed);
+        System.out.println("[SIM] Store latency:    " + storeLatency.summary("s"));
+        System.out.println("[SIM] Retrieve latency: " + retrieveLatency.summary("s"));
+        System.out.println("[SIM] Throughput: " + String.format("%.1f", hours == 0 ? 0 : done / hours)
+                + " op/h with " + fleet.getFleet().size() + " AGV(s), boxes in storage: " + storedBoxes.size()
+                + ", CPU time: " + cpuMillis + " ms");
+        System.out.println("[SIM] Charging: " + fleet.getStations().summary());
+        MetricsRegistry.Snapshot snapshot = CapstoneProject.metrics.snapshot();
+        System.out.println("[SIM] AGV utilization: " + MetricsRegistry.percentages(snapshot.agvUtilization));
+    }
 
-// ========================
-// User-defined Exception
-// ========================
-class StorageException extends Exception {
-    public StorageException(String message) {
-        super(message);
+    public static void runCli(String[] args) {
+        long seed = 1;
+        double hours = 8;
+        double arrivalsPerHour = 200;
+        double retrieveShare = 0.5;
+        int rows = 20;
+        int cols = 50;
+        int agvs = 4;
+        int stations = 2;
+        int obstacles = 0;
+        String trace = null;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                String option = args[i];
+                if (i + 1 >= args.length) throw new InvalidPathException("Missing value for " + option);
+                String value = args[++i];
+                switch (option) {
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "--hours":
+                        hours = Double.parseDouble(value);
+                        break;
+                    case "--arrivals":
+                        arrivalsPerHour = Double.parseDouble(value);
+                        break;
+                    case "--retrieve":
+                        retrieveShare = Double.parseDouble(value);
+                        break;
+                    case "--rows":
+                        rows = Integer.parseInt(value);
+                        break;
+                    case "--cols":
+                        cols = Integer.parseInt(value);
+                        break;
+                    case "--agvs":
+                        agvs = Integer.parseInt(value);
+                        break;
+                    case "--stations":
+                        stations = Integer.parseInt(value);
+                        break;
+                    case "--obstacles":
+                        obstacles = Integer.parseInt(value);
+                        break;
+                    case "--trace":
+                        trace = value;
+                        break;
+                    default:
+                        throw new InvalidPathException("Unknown option " + option);
+                }
+            }
+        } catch (InvalidPathException | NumberFormatException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+            return;
+        }
+
+        // All categories go to one Simulation log, nothing is echoed per event
+        LogManager simLog = new LogManager("Simulation");
+        try {
+            simLog.initializeLog();
+            simLog.enableAsync();
+            CapstoneProject.router = new LogRouter(simLog, simLog, simLog, simLog);   // one line per event
+            CapstoneProject.router.setConsole(false);
+
+            if (trace != null) Tracer.enable(Tracer.DEFAULT_CAPACITY);
+            long start = System.nanoTime();
+            WarehouseSimulation simulation = new WarehouseSimulation(seed, rows, cols, agvs, stations, obstacles);
+            // log lines carry the shift time: the wall-clock start of the run plus the virtual clock,
+            // so they stay in order after the segment's name and first line (LogQuery, LogIndex)
+            long shiftStart = System.currentTimeMillis();
+            CapstoneProject.router.setClock(() -> shiftStart + simulation.clock.now());
+            simulation.run((long) (hours * 3_600_000), arrivalsPerHour, retrieveShare);
+            simulation.printReport((System.nanoTime() - start) / 1_000_000);
+            if (trace != null) Tracer.finish(trace);
+        } catch (InvalidPathException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+        } finally {
+            CapstoneProject.scheduler.shutdown();
+            simLog.closeLog();
+        }
     }
 }
 
 // ========================
-// StorageSystem Subclasses with Exception Handling
+// Batch Runner
 // ========================
-abstract class StorageSystem {
-    protected static int totalBoxes = 0;
-    protected static int enteredCount = 0;
-    protected static int exitedCount = 0;
+// Runs store/retrieve commands without prompts, one command per line:
+//   store <id> <weight> <description...>
+//   retrieve <id>
+// Blank lines and lines starting with # are skipped. Each command goes through the same
+// checks and FleetDispatcher as the menu but is not waited for, so jobs on different boxes
+// run on the AGVs at the same time; a command on a box first waits for the previous job on
+// that box. The wall-clock time of every operation (submit to done) is recorded and
+// summarized with the total throughput at the end.
+class BatchRunner {
+    private final StorageArea area;
+    private final FleetDispatcher fleet;
+    private final isBoxEntered enteredLog = new isBoxEntered();
+    private final isBoxStored storedLog = new isBoxStored();
+    private final isBoxExited exitedLog = new isBoxExited();
+    private final LatencyStats storeLatency = new LatencyStats();
+    private final LatencyStats retrieveLatency = new LatencyStats();
+    private final AtomicInteger failed = new AtomicInteger();
+    // Box id -> its job still running; removed by the job when it ends
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    public BatchRunner(StorageArea area) {
+        this.area = area;
+        List<ChargingStation> stations = Arrays.asList(
+                new ChargingStation("CS1", new Position(0, 5)), new ChargingStation("CS2", new Position(1, 5)));
+        CapstoneProject.planner = GridPlanner.forWarehouse(area.getRows(), area.getCols(), stations);
+        this.fleet = new FleetDispatcher(
+                Arrays.asList(new AGV("1"), new AGV("2"), new AGV("3"), new AGV("4")), stations, area);
+    }
 
-    protected abstract void recordEvent(Box box) throws StorageException;
+    // Returns the number of commands run, including failed ones
+    public int run(BufferedReader in) throws IOException {
+        int commands = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            commands++;
+            long start = System.nanoTime();
+            try {
+                String[] parts = line.split("\\s+", 4);
+                switch (parts[0].toLowerCase()) {
+                    case "store":
+                        if (parts.length < 3) throw new ProcessException("Usage: store <id> <weight> <description>");
+                        settle(parts[1]);
+                        store(parts[1], parts[2], parts.length > 3 ? parts[3] : "", lineNumber, start);
+                        break;
+                    case "retrieve":
+                        if (parts.length < 2) throw new ProcessException("Usage: retrieve <id>");
+                        settle(parts[1]);
+                        retrieve(parts[1], lineNumber, start);
+                        break;
+                    default:
+                        throw new ProcessException("Unknown command: " + parts[0]);
+                }
+            } catch (ProcessException e) {
+                failed(lineNumber, e);
+            }
+        }
+        for (CompletableFuture<Void> job : inFlight.values()) {
+            CapstoneProject.scheduler.await(job);
+        }
+        return commands;
+    }
 
-    protected abstract void displayLog();
-}
+    private void store(String id, String weight, String desc, int lineNumber, long start) throws ProcessException {
+        if (area.containsBox(id)) throw new ProcessException("Box ID " + id + " already exists.");
+        if (!weight.matches("\\d+(\\.\\d+)?")) throw new ProcessException("Weight must be a numeric value: " + weight);
 
-class isBoxEntered extends StorageSystem {
-    @Override
-    protected void recordEvent(Box box) throws StorageException {
-        try {
-            if (box == null) throw new StorageException("Cannot enter a null box!");
-            enteredCount++;
-            totalBoxes++;
-            System.out.println("[EVENT] Box#" + box.getId() + " entered");
-            CapstoneProject.systemLog.log("[EVENT] Box#" + box.getId() + " entered");
-            CapstoneProject.overallLog.log("[EVENT] Box#" + box.getId() + " entered");
-        } catch (StorageException e) {
-            System.err.println("[ERROR] " + e.getMessage());
-        }
+        Box box = new Box(id, weight, desc);
+        if (area.isFull()) throw new StorageFullException("Storage area is full! Cannot store Box#" + id);
+        enteredLog.recordEvent(box);
+
+        track(id, fleet.submitStore(box), lineNumber, start, storeLatency, () -> storedLog.recordEvent(box));
     }
 
-    @Override
-    protected void displayLog() {
-        System.out.println("[INFO] Total boxes entered: " + enteredCount);
-        CapstoneProject.systemLog.log("[INFO] Total boxes entered: " + enteredCount);
+    private void retrieve(String id, int lineNumber, long start) throws ProcessException {
+        Position boxPos = area.findBoxById(id);
+        if (boxPos == null) throw new ProcessException("Box with ID " + id + " not found in storage.");
+        Box storedBox = area.getBoxAt(boxPos.getRow(), boxPos.getCol());
+        storedBox.setPosition(boxPos.getRow(), boxPos.getCol());
+
+        track(id, fleet.submitRetrieve(storedBox), lineNumber, start, retrieveLatency, () -> exitedLog.recordEvent(storedBox));
     }
-}
 
-class isBoxStored extends StorageSystem {
-    @Override
-    protected void recordEvent(Box box) throws StorageException {
-        try {
-            if (box == null) throw new StorageException("Cannot store a null box!");
-            System.out.println("[EVENT] Box#" + box.getId() + " stored");
-            CapstoneProject.systemLog.log("[EVENT] Box#" + box.getId() + " stored");
-            CapstoneProject.overallLog.log("[EVENT] Box#" + box.getId() + " stored");
-        } catch (StorageException e) {
-            System.err.println("[ERROR] " + e.getMessage());
-        }
+    // Record the job's latency and event when it ends, or report it as failed
+    private void track(String id, CompletableFuture<Void> job, int lineNumber, long start,
+                       LatencyStats latency, Runnable done) {
+        CompletableFuture<Void> tracked = job.handle((result, error) -> {
+            if (error != null) {
+                failed(lineNumber, error instanceof CompletionException ? error.getCause() : error);
+                return null;
+            }
+            synchronized (latency) {
+                latency.record((System.nanoTime() - start) / 1000);
+            }
+            done.run();
+            return null;
+        });
+        inFlight.put(id, tracked);
+        tracked.thenRun(() -> inFlight.remove(id, tracked));
     }
 
-    @Override
-    protected void displayLog() {
-        System.out.println("[INFO] Total boxes stored: " + totalBoxes);
-        CapstoneProject.overallLog.log("[INFO] Total boxes stored: " + totalBoxes);
+    // The next command on a box is checked only after the job before it has ended
+    private void settle(String id) {
+        CompletableFuture<Void> previous = inFlight.get(id);
+        if (previous != null) CapstoneProject.scheduler.await(previous);
     }
-}
 
-class isBoxExited extends StorageSystem {
-    @Override
-    protected void recordEvent(Box box) throws StorageException {
+    private void failed(int lineNumber, Throwable e) {
+        failed.incrementAndGet();
+        CapstoneProject.router.error("[PROCESS ERROR] line " + lineNumber + ": " + e.getMessage(), LogCategory.SYSTEM);
+    }
+
+    public void printReport(int commands, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("[BATCH] " + commands + " command(s) in " + String.format("%.3f", seconds) + " s, failed: " + failed.get());
+        System.out.println("[BATCH] Store latency:    " + storeLatency.summary("us"));
+        System.out.println("[BATCH] Retrieve latency: " + retrieveLatency.summary("us"));
+        System.out.println("[BATCH] Throughput: " + String.format("%.1f", seconds == 0 ? 0 : commands / seconds) + " command(s)/s");
+    }
+
+    // batch [file|-] [--echo] [--rows R] [--cols C]; no file or "-" reads standard input
+    public static void runCli(String[] args) {
+        String source = "-";
+        boolean echo = false;
+        int rows = 5;
+        int cols = 5;
+        String trace = null;
         try {
-            if (box == null) throw new StorageException("Cannot exit a null box!");
-            exitedCount++;
-            totalBoxes--;
-            System.out.println("[EVENT] Box#" + box.getId() + " exited");
-            CapstoneProject.systemLog.log("[EVENT] Box#" + box.getId() + " exited");
-            CapstoneProject.overallLog.log("[EVENT] Box#" + box.getId() + " exited");
-        } catch (StorageException e) {
+            for (int i = 1; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--echo")) {
+                    echo = true;
+                } else if (option.equals("--trace")) {
+                    if (i + 1 >= args.length) throw new InvalidPathException("Missing value for " + option);
+                    trace = args[++i];
+                } else if (option.equals("--rows") || option.equals("--cols")) {
+                    if (i + 1 >= args.length) throw new InvalidPathException("Missing value for " + option);
+                    int value = Integer.parseInt(args[++i]);
+                    if (option.equals("--rows")) rows = value;
+                    else cols = value;
+                } else if (option.startsWith("--")) {
+                    throw new InvalidPathException("Unknown option " + option);
+                } else {
+                    source = option;
+                }
+            }
+        } catch (InvalidPathException | NumberFormatException e) {
             System.err.println("[ERROR] " + e.getMessage());
+            return;
         }
-    }
 
-    @Override
-    protected void displayLog() {
-        System.out.println("[INFO] Total boxes exited: " + exitedCount);
-        CapstoneProject.overallLog.log("[INFO] Total boxes exited: " + exitedCount);
+        LogManager agvLog = new LogManager("AGV");
+        LogManager batteryLog = new LogManager("Battery");
+        LogManager systemLog = new LogManager("System");
+        LogManager overallLog = new LogManager("Overall");
+        try (BufferedReader in = source.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8)) {
+            for (LogManager log : new LogManager[]{agvLog, batteryLog, systemLog, overallLog}) {
+                log.initializeLog();
+                log.enableAsync();
+            }
+            CapstoneProject.router = new LogRouter(agvLog, batteryLog, systemLog, overallLog);
+            CapstoneProject.router.setConsole(echo);
+
+            if (trace != null) Tracer.enable(Tracer.DEFAULT_CAPACITY);
+            BatchRunner runner = new BatchRunner(new StorageArea(rows, cols, true));   // jobs overlap
+            long start = System.nanoTime();
+            int commands = runner.run(in);
+            runner.printReport(commands, System.nanoTime() - start);
+            if (trace != null) Tracer.finish(trace);
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+        } finally {
+            CapstoneProject.scheduler.shutdown();
+            agvLog.closeLog();
+            batteryLog.closeLog();
+            systemLog.closeLog();
+            overallLog.closeLog();
+        }
     }
 }
 
@@ -1010,8 +5351,61 @@ public class CapstoneProject {
     public static LogManager batteryLog;
     public static LogManager systemLog;
     public static LogManager overallLog;
+    public static LogRouter router;        // Writes each event once to every log it belongs to
+    public static EventJournal events = EventJournal.disabled(); // Binary event records next to the text logs
+    public static StoragePersistence persistence = StoragePersistence.disabled(); // Storage journal + snapshots
+    public static TaskScheduler scheduler = new RealTimeScheduler(); // Timed work such as charging steps
+    public static Random random = new Random();  // Seeded for simulation runs
+    public static GridPlanner planner = new GridPlanner(5, 5); // Routes over the current warehouse floor
+    public static MetricsRegistry metrics = new MetricsRegistry(); // Counters and latencies, lock-free
 
     public static void main(String[] args) {
+        // Headless log search, e.g. java -jar warehouse.jar query --agv 1 --from 2025-10-28T08:00:00
+        if (args.length > 0 && args[0].equals("query")) {
+            LogQuery.runCli(args);
+            return;
+        }
+        // Virtual-time shift, e.g. java -jar warehouse.jar simulate --seed 7 --hours 8 --arrivals 300 --agvs 6
+        if (args.length > 0 && args[0].equals("simulate")) {
+            WarehouseSimulation.runCli(args);
+            return;
+        }
+        // Scripted store/retrieve commands, e.g. java -jar warehouse.jar batch scenario.txt
+        if (args.length > 0 && args[0].equals("batch")) {
+            BatchRunner.runCli(args);
+            return;
+        }
+        // Event journal summary, e.g. java -jar warehouse.jar events Logs/Events/2025/Oct/28/events_08-00-00.bin
+        if (args.length > 0 && args[0].equals("events")) {
+            EventJournal.runCli(args);
+            return;
+        }
+        // Menu options, e.g. java -jar warehouse.jar --metrics-port 9400 --event-text
+        //   --metrics-port N  Prometheus scrape endpoint next to the menu
+        //   --event-text      also write journaled events (moves, stores, charging) to the text logs;
+        //                     without it they are only in the event journal (events <file> --text)
+        int metricsPort = -1;
+        boolean eventText = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--metrics-port":
+                        if (i + 1 >= args.length) throw new InvalidPathException("Missing value for --metrics-port");
+                        metricsPort = Integer.parseInt(args[++i]);
+                        break;
+                    case "--event-text":
+                        eventText = true;
+                        break;
+                    default:
+                        throw new InvalidPathException("Unknown option " + args[i]);
+                }
+            }
+        } catch (InvalidPathException | NumberFormatException e) {
+            System.err.println("[ERROR] " + e.getMessage());
+            return;
+        }
+        MetricsEndpoint endpoint = null;
+
         try {
             agvLog = new LogManager("AGV");
             batteryLog = new LogManager("Battery");
@@ -1023,29 +5417,50 @@ public class CapstoneProject {
             systemLog.initializeLog();
             overallLog.initializeLog();
 
-            systemLog.log("[INFO] Warehouse automation simulation started.");
-            overallLog.log("[INFO] Warehouse automation simulation started.");
+            // Write log files from background threads instead of flushing per line
+            agvLog.enableAsync();
+            batteryLog.enableAsync();
+            systemLog.enableAsync();
+            overallLog.enableAsync();
+
+            router = new LogRouter(agvLog, batteryLog, systemLog, overallLog);
+            events = EventJournal.open();
+            router.setJournaledText(eventText);
+
+            router.log("[INFO] Warehouse automation simulation started.", LogCategory.SYSTEM);
 
-            StorageArea area = new StorageArea(5, 5);
-            systemLog.log("[INFO] Storage area is 5x5");
-            overallLog.log("[INFO] Storage area is 5x5");
+            // Restore the area and box counters from the last run (Data/storage.snapshot + storage.wal).
+            // Concurrent: the dispatcher runs every AGV's job on its own thread.
+            persistence = StoragePersistence.open("Data", 1000, 2);
+            StorageArea area = persistence.recover(5, 5, true);
+            router.log("[INFO] Storage area is 5x5", LogCategory.SYSTEM);
             ChargingStation station1 = new ChargingStation("CS1", new Position(0, 5));
             ChargingStation station2 = new ChargingStation("CS2", new Position(1, 5));
+            planner = GridPlanner.forWarehouse(5, 5, Arrays.asList(station1, station2));
 
             isBoxEntered enteredLog = new isBoxEntered();
             isBoxStored storedLog = new isBoxStored();
             isBoxExited exitedLog = new isBoxExited();
 
-            AGV storingActive = new AGV("1");      // active for storing
-            AGV storingStandby = new AGV("2");     // standby for storing
-            AGV retrievingActive = new AGV("3");   // active for retrieving
-            AGV retrievingStandby = new AGV("4");  // standby for retrieving
+            // Any free AGV takes any job; the dispatcher picks by battery, distance and load
+            FleetDispatcher fleet = new FleetDispatcher(
+                    Arrays.asList(new AGV("1"), new AGV("2"), new AGV("3"), new AGV("4")),
+                    Arrays.asList(station1, station2), area);
+
+            if (metricsPort >= 0) {
+                try {
+                    endpoint = MetricsEndpoint.start(metricsPort, area, fleet);
+                    router.event("[INFO] Metrics at http://localhost:" + endpoint.getPort() + "/metrics", LogCategory.SYSTEM);
+                } catch (IOException e) {
+                    router.error("[ERROR] Metrics endpoint not started: " + e.getMessage(), LogCategory.SYSTEM);
+                }
+            }
 
             Scanner sc = new Scanner(System.in);
 
             while (true) {
                 System.out.println("\n==============================");
-                System.out.println("-------------" + enteredLog.enteredCount + storedLog.totalBoxes + exitedLog.exitedCount);
+                System.out.println("-------------" + metrics.boxesEntered() + metrics.boxesInStorage() + metrics.boxesExited());
                 System.out.println("HELLO! WAREHOUSE MENU");
                 System.out.println("1. Store Box");
                 System.out.println("2. Retrieve Box");
@@ -1063,10 +5478,8 @@ public class CapstoneProject {
                                 System.out.print("Enter Box ID: ");
                                 id = sc.nextLine();
                                 // Check if Box ID already exists
-                                if (area.findBoxById(id) != null) {
-                                    System.out.println("[ERROR] Box ID already exists in storage. Please enter a different ID.");
-                                    systemLog.log("[ERROR] Box ID already exists in storage. Please enter a different ID.");
-                                    overallLog.log("[ERROR] Box ID already exists in storage. Please enter a different ID.");
+                                if (area.containsBox(id)) {
+                                    router.event("[ERROR] Box ID already exists in storage. Please enter a different ID.", LogCategory.SYSTEM);
                                 } else {
                                     break; // ID is unique, proceed
                                 }
@@ -1079,8 +5492,7 @@ public class CapstoneProject {
                                 // Validate numeric
                                 if (!weight.matches("\\d+(\\.\\d+)?")) {  // allows integer or decimal
                                     System.out.println("[ERROR] Weight must be a numeric value. Try again.");
-                                    systemLog.log("[ERROR] Invalid weight entered: " + weight);
-                                    overallLog.log("[ERROR] Invalid weight entered: " + weight);
+                                    router.log("[ERROR] Invalid weight entered: " + weight, LogCategory.SYSTEM);
                                 } else {
                                     break;
                                 }
@@ -1090,23 +5502,17 @@ public class CapstoneProject {
                             String desc = sc.nextLine();
 
                             Box userBox = new Box(id, weight, desc);
-                            Position emptySlot = area.findEmptySlot();
 
-                            if (emptySlot != null) {
-                                userBox.setPosition(emptySlot.getRow(), emptySlot.getCol());
+                            if (!area.isFull()) {
                                 enteredLog.recordEvent(userBox);
 
-                                Storing storeProcess = new Storing(storingActive, storingStandby, userBox, area, station1);
-                                storeProcess.execute();
-                                storeProcess.logProcess();
+                                FleetDispatcher.await(fleet.submitStore(userBox));
                                 storedLog.recordEvent(userBox);
                             } else {
-                                throw new ProcessException("Storage area is full! Cannot store Box#" + id);
+                                throw new StorageFullException("Storage area is full! Cannot store Box#" + id);
                             }
                         } catch (ProcessException pe) {
-                            System.err.println("[PROCESS ERROR] " + pe.getMessage());
-                            systemLog.log("[PROCESS ERROR] " + pe.getMessage());
-                            overallLog.log("[PROCESS ERROR] " + pe.getMessage());
+                            router.error("[PROCESS ERROR] " + pe.getMessage(), LogCategory.SYSTEM);
                         }
                         break;
                     }
@@ -1122,17 +5528,13 @@ public class CapstoneProject {
                                 Box storedBox = area.getBoxAt(boxPos.getRow(), boxPos.getCol());
                                 storedBox.setPosition(boxPos.getRow(), boxPos.getCol());
 
-                                Retrieving retrieveProcess = new Retrieving(retrievingActive, retrievingStandby, storedBox, area, station2);
-                                retrieveProcess.execute();
-                                retrieveProcess.logProcess();
+                                FleetDispatcher.await(fleet.submitRetrieve(storedBox));
                                 exitedLog.recordEvent(storedBox);
                             } else {
                                 throw new ProcessException("Box with ID " + id + " not found in storage.");
                             }
                         } catch (ProcessException pe) {
-                            System.err.println("[PROCESS ERROR] " + pe.getMessage());
-                            systemLog.log("[PROCESS ERROR] " + pe.getMessage());
-                            overallLog.log("[PROCESS ERROR] " + pe.getMessage());
+                            router.error("[PROCESS ERROR] " + pe.getMessage(), LogCategory.SYSTEM);
                         }
                         break;
                     }
@@ -1142,41 +5544,56 @@ public class CapstoneProject {
                         area.displayAllBoxes();
 
                         System.out.println("\n=== AGV Info ===");
-                        storingActive.displayInfo();
-                        storingStandby.displayInfo();
-                        retrievingActive.displayInfo();
-                        retrievingStandby.displayInfo();
+                        fleet.displayInfo();
 
                         enteredLog.displayLog();
                         exitedLog.displayLog();
                         storedLog.displayLog();
+
+                        MetricsRegistry.Snapshot snapshot = metrics.snapshot();
+                        router.event("[INFO] Store latency: " + snapshot.store.summary("us"), LogCategory.SYSTEM);
+                        router.event("[INFO] Retrieve latency: " + snapshot.retrieve.summary("us"), LogCategory.SYSTEM);
+                        router.event("[INFO] AGV utilization: " + MetricsRegistry.percentages(snapshot.agvUtilization), LogCategory.AGV);
                         break;
                     case "4":
                         System.out.print("Do you want to view a previous log file? (y/n): ");
                         if (sc.nextLine().equalsIgnoreCase("y")) {
-                            systemLog.viewLog();
+                            systemLog.viewLog(sc);
                         }
 
                         System.out.print("\nDo you want to delete a log file? (y/n): ");
                         if (sc.nextLine().equalsIgnoreCase("y")) {
-                            systemLog.deleteLog();
+                            systemLog.deleteLog(sc);
                         }
 
                         System.out.print("\nDo you want to move a log file? (y/n): ");
                         if (sc.nextLine().equalsIgnoreCase("y")) {
-                            systemLog.moveLog();
+                            systemLog.moveLog(sc);
+                        }
+
+                        System.out.print("\nDo you want to archive all logs older than N days? (y/n): ");
+                        if (sc.nextLine().equalsIgnoreCase("y")) {
+                            System.out.print("Enter number of days: ");
+                            String days = sc.nextLine();
+                            try {
+                                if (!days.matches("\\d+")) throw new InvalidPathException("Days must be a whole number.");
+                                LogManager.archiveOlderThan(Integer.parseInt(days));
+                            } catch (InvalidPathException e) {
+                                System.err.println("[ERROR] " + e.getMessage());
+                            }
                         }
                         break;
                     case "0":
-                        agvLog.log("[INFO] Simulation completed successfully.");
-                        batteryLog.log("[INFO] Simulation completed successfully.");
-                        systemLog.log("[INFO] Simulation completed successfully.");
-                        overallLog.log("[INFO] Simulation completed successfully.");
+                        scheduler.shutdown();
+                        if (endpoint != null) endpoint.stop();
+                        router.log("[INFO] Simulation completed successfully.", LogCategory.AGV, LogCategory.BATTERY, LogCategory.SYSTEM);
 
                         agvLog.closeLog();
                         batteryLog.closeLog();
                         systemLog.closeLog();
                         overallLog.closeLog();
+                        events.close();
+                        persistence.close();
 
                         agvLog.archiveLog();
                         batteryLog.archiveLog();
@@ -1192,14 +5609,20 @@ public class CapstoneProject {
             }
         } catch (InvalidPathException e) {
             System.err.println("[ERROR] Invalid log folder path: " + e.getMessage());
+        } catch (StorageException e) {
+            System.err.println("[ERROR] Storage recovery failed: " + e.getMessage());
         } catch (Exception e) {
             System.err.println("[ERROR] Unexpected error: " + e.getMessage());
         } finally {
             // Ensure all log files are closed
+            scheduler.shutdown();
+            if (endpoint != null) endpoint.stop();
             if (agvLog != null) agvLog.closeLog();
             if (batteryLog != null) batteryLog.closeLog();
             if (systemLog != null) systemLog.closeLog();
             if (overallLog != null) overallLog.closeLog();
+            events.close();
+            persistence.close();
 
             System.out.println("[INFO] All log files closed (if any were open).");
         }
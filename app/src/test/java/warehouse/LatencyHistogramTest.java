@@ -0,0 +1,68 @@
+package warehouse;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+    private static final int LAST_BUCKET = LatencyHistogram.bucket(Long.MAX_VALUE);
+
+    @Test
+    void valuesBelowEightHaveABucketEach() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, LatencyHistogram.bucket(value));
+            assertEquals(value, LatencyHistogram.upperBound(value));
+        }
+    }
+
+    @Test
+    void bucketsAreContiguousUpToLongMax() {
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LAST_BUCKET));
+        for (int bucket = 0; bucket < LAST_BUCKET; bucket++) {
+            long bound = LatencyHistogram.upperBound(bucket);
+            assertEquals(bucket, LatencyHistogram.bucket(bound), "upper bound of " + bucket);
+            assertEquals(bucket + 1, LatencyHistogram.bucket(bound + 1), "value after bucket " + bucket);
+        }
+    }
+
+    @Test
+    void everyValueIsWithinAnEighthOfItsBucketBound() {
+        for (long value = 0; value < 100_000; value++) {
+            checkBounds(value);
+        }
+        for (int shift = 3; shift < 63; shift++) {
+            long power = 1L << shift;
+            checkBounds(power - 1);
+            checkBounds(power);
+            checkBounds(power + 1);
+        }
+    }
+
+    @Test
+    void percentilesReportTheBucketBoundCappedAtTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(1000);
+        histogram.record(-5);   // counted as 0
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(101, snapshot.count);
+        assertEquals(1000, snapshot.max);
+        assertEquals(0, snapshot.percentile(0.5));
+        assertEquals(103, snapshot.percentile(50));   // 100 falls in [96, 103]
+        assertEquals(1000, snapshot.percentile(100)); // bucket bound 1023, capped at max
+    }
+
+    private static void checkBounds(long value) {
+        int bucket = LatencyHistogram.bucket(value);
+        long upper = LatencyHistogram.upperBound(bucket);
+        assertTrue(value <= upper, value + " above its bucket bound " + upper);
+        if (bucket > 0) {
+            assertTrue(value > LatencyHistogram.upperBound(bucket - 1), value + " belongs to a lower bucket");
+        }
+        assertTrue(upper - value <= value / 8, value + " reported as " + upper);
+    }
+}
@@ -0,0 +1,68 @@
+package warehouse;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PackedShelfStoreTest {
+    private static final int SLOTS = 200;
+
+    @Test
+    void clearedSlotsAreEmptyAndTheRestKeepTheirBoxes() {
+        PackedShelfStore store = new PackedShelfStore(SLOTS);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            store.put(slot, box("B" + slot, slot));
+        }
+        for (int slot = 0; slot < SLOTS; slot += 4) {
+            store.clear(slot);
+        }
+
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (slot % 4 == 0) {
+                assertFalse(store.isOccupied(slot));
+                assertNull(store.get(slot, 0, slot));
+            } else {
+                assertTrue(store.isOccupied(slot));
+                assertSameBox(box("B" + slot, slot), store.get(slot, 0, slot));
+            }
+        }
+    }
+
+    @Test
+    void slotsFilledAgainAfterClearingHoldTheNewBoxes() {
+        PackedShelfStore store = new PackedShelfStore(SLOTS);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            store.put(slot, box("B" + slot, slot));
+        }
+        for (int slot = 0; slot < SLOTS; slot++) {
+            store.clear(slot);
+        }
+        for (int slot = 0; slot < SLOTS; slot += 2) {
+            store.put(slot, box("N" + slot, slot + 1));
+        }
+
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (slot % 2 == 0) {
+                assertSameBox(box("N" + slot, slot + 1), store.get(slot, 0, slot));
+            } else {
+                assertFalse(store.isOccupied(slot));
+            }
+        }
+    }
+
+    // Shared and unique contents, and weights that do and don't round-trip through a double
+    private static Box box(String id, int n) {
+        String weight = n % 3 == 0 ? "1.50" : n + ".5";
+        String content = n % 2 == 0 ? "shared parts" : "parts for order " + n;
+        return new Box(id, weight, content);
+    }
+
+    private static void assertSameBox(Box expected, Box actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getWeight(), actual.getWeight());
+        assertEquals(expected.getContent(), actual.getContent());
+    }
+}
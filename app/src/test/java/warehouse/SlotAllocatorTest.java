@@ -0,0 +1,167 @@
+package warehouse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlotAllocatorTest {
+    private static final int THREADS = 8;
+
+    @Test
+    void firstFitClaimsInSlotOrderUntilFull() {
+        SlotAllocator slots = new SlotAllocator(3, 70);   // 210 slots over four bitmap words
+        for (int slot = 0; slot < 210; slot++) {
+            assertEquals(slot, slots.claim());
+        }
+        assertEquals(-1, slots.claim());
+        assertEquals(0, slots.freeCount());
+
+        assertTrue(slots.markFree(137));
+        assertFalse(slots.markFree(137));
+        assertEquals(1, slots.freeCount());
+        assertEquals(137, slots.claim());
+    }
+
+    @Test
+    void aSlotIsMarkedUsedOnlyOnce() {
+        SlotAllocator slots = new SlotAllocator(2, 2);
+        assertTrue(slots.markUsed(3));
+        assertFalse(slots.markUsed(3));
+        assertFalse(slots.isFree(3));
+        assertEquals(3, slots.freeCount());
+    }
+
+    @Test
+    void nearestToPickupFollowsTheLatestPickupPoint() {
+        SlotAllocator slots = new SlotAllocator(5, 5);
+        slots.setPolicy(PlacementPolicy.NEAREST_TO_PICKUP, new Position(2, 2));
+        assertEquals(12, slots.claim());
+        assertEquals(1, distance(slots.claim(), 5, 2, 2));
+
+        slots.setPolicy(PlacementPolicy.NEAREST_TO_PICKUP, new Position(4, 4));
+        assertEquals(24, slots.claim());
+        assertEquals(1, distance(slots.claim(), 5, 4, 4));
+    }
+
+    @Test
+    void movingThePickupPositionAfterwardsDoesNotReorderTheSet() {
+        SlotAllocator slots = new SlotAllocator(5, 5);
+        Position pickup = new Position(0, 0);
+        slots.setPolicy(PlacementPolicy.NEAREST_TO_PICKUP, pickup);
+        pickup.setRow(4);
+        pickup.setCol(4);
+        assertEquals(0, slots.claim());
+    }
+
+    @Test
+    void zoneBalancedSpreadsClaimsOverTheZones() {
+        SlotAllocator slots = new SlotAllocator(8, 2);   // four zones of two rows
+        slots.setPolicy(PlacementPolicy.ZONE_BALANCED, null);
+        Set<Integer> zones = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            zones.add(slots.claim() / 2 / 2);
+        }
+        assertEquals(4, zones.size());
+    }
+
+    @Test
+    void concurrentClaimsHandOutEverySlotExactlyOnce() throws Exception {
+        for (PlacementPolicy policy : PlacementPolicy.values()) {
+            SlotAllocator slots = new SlotAllocator(40, 50);
+            slots.setPolicy(policy, new Position(20, 25));
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            try {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<List<Integer>>> results = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    results.add(pool.submit(() -> {
+                        start.await();
+                        List<Integer> claimed = new ArrayList<>();
+                        for (int slot = slots.claim(); slot >= 0; slot = slots.claim()) {
+                            claimed.add(slot);
+                        }
+                        return claimed;
+                    }));
+                }
+                start.countDown();
+                Set<Integer> all = new HashSet<>();
+                int total = 0;
+                for (Future<List<Integer>> result : results) {
+                    List<Integer> claimed = result.get();
+                    total += claimed.size();
+                    all.addAll(claimed);
+                }
+                assertEquals(2000, total, policy.toString());
+                assertEquals(2000, all.size(), policy.toString());
+                assertEquals(0, slots.freeCount(), policy.toString());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    void claimAndFreeChurnWithPolicyChangesKeepsEveryCountConsistent() throws Exception {
+        int rows = 20, cols = 20;
+        SlotAllocator slots = new SlotAllocator(rows, cols);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                workers.add(pool.submit(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        int slot = slots.claim();
+                        if (slot >= 0) assertTrue(slots.markFree(slot));
+                    }
+                    return null;
+                }));
+            }
+            Future<?> switcher = pool.submit(() -> {
+                Random random = new Random(7);
+                PlacementPolicy[] policies = PlacementPolicy.values();
+                while (running.get()) {
+                    slots.setPolicy(policies[random.nextInt(policies.length)],
+                            new Position(random.nextInt(rows), random.nextInt(cols)));
+                }
+                return null;
+            });
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            running.set(false);
+            switcher.get();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(rows * cols, slots.freeCount());
+        for (int slot = 0; slot < rows * cols; slot++) {
+            assertTrue(slots.isFree(slot));
+        }
+        // the distance set rebuilt last still knows every free slot
+        slots.setPolicy(PlacementPolicy.NEAREST_TO_PICKUP, new Position(0, 0));
+        Set<Integer> claimed = new HashSet<>();
+        for (int slot = slots.claim(); slot >= 0; slot = slots.claim()) {
+            claimed.add(slot);
+        }
+        assertEquals(rows * cols, claimed.size());
+    }
+
+    private static int distance(int slot, int cols, int row, int col) {
+        return Math.abs(slot / cols - row) + Math.abs(slot % cols - col);
+    }
+}
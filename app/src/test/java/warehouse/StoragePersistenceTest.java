@@ -0,0 +1,143 @@
+package warehouse;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoragePersistenceTest {
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void quietLogs() {
+        TestLogs.quiet();
+    }
+
+    @Test
+    void storesAndRetrievesSurviveARestart() throws Exception {
+        StoragePersistence persistence = StoragePersistence.open(dir.toString(), 1000, 0);
+        StorageArea area = persistence.recover(5, 5, true);
+        for (int i = 0; i < 10; i++) {
+            store(area, "B" + i);
+        }
+        Position taken = area.findBoxById("B3");
+        assertNotNull(area.retrieveBox(taken.getRow(), taken.getCol()));
+        Position kept = area.findBoxById("B7");
+        persistence.close();
+
+        StoragePersistence reopened = StoragePersistence.open(dir.toString(), 1000, 0);
+        StorageArea recovered = reopened.recover(5, 5, true);
+        try {
+            assertEquals(9, recovered.boxCount());
+            assertNull(recovered.findBoxById("B3"));
+            Box box = recovered.getBoxAt(kept.getRow(), kept.getCol());
+            assertEquals("B7", box.getId());
+            assertEquals("2.5", box.getWeight());
+            assertEquals("parts", box.getContent());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void aSnapshotPlusTheJournalTailRecoversEveryBox() throws Exception {
+        StoragePersistence persistence = StoragePersistence.open(dir.toString(), 4, 0);
+        StorageArea area = persistence.recover(5, 5, false);
+        for (int i = 0; i < 10; i++) {
+            store(area, "B" + i);
+        }
+        persistence.close();
+        assertTrue(Files.exists(dir.resolve("storage.snapshot")));
+
+        StoragePersistence reopened = StoragePersistence.open(dir.toString(), 4, 0);
+        try {
+            assertEquals(10, reopened.recover(5, 5, false).boxCount());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void aTornTailIsCutOffAndTheIntactRecordsKept() throws Exception {
+        Path journal = writeBoxes(3);
+        long intact = Files.size(journal);
+        // a record header promising 20 bytes, cut off after seven of them
+        Files.write(journal, new byte[] {0, 0, 0, 20, 1, 2, 3, 4, 5, 6, 7}, StandardOpenOption.APPEND);
+
+        StoragePersistence reopened = StoragePersistence.open(dir.toString(), 1000, 0);
+        try {
+            assertEquals(3, reopened.recover(5, 5, false).boxCount());
+            assertEquals(intact, Files.size(journal));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void replayStopsAtARecordWithABadChecksum() throws Exception {
+        Path journal = writeBoxes(3);
+        try (RandomAccessFile file = new RandomAccessFile(journal.toFile(), "rw")) {
+            long last = file.length() - 1;   // inside the third store record
+            file.seek(last);
+            int b = file.read();
+            file.seek(last);
+            file.write(b ^ 0xff);
+        }
+
+        StoragePersistence reopened = StoragePersistence.open(dir.toString(), 1000, 0);
+        try {
+            StorageArea recovered = reopened.recover(5, 5, false);
+            assertEquals(2, recovered.boxCount());
+            assertNull(recovered.findBoxById("B2"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void theShelfBackendIsRestoredFromTheSnapshot() throws Exception {
+        StoragePersistence persistence = StoragePersistence.open(dir.toString(), 2, 0);
+        StorageArea area = persistence.recover(5, 5, false, ShelfBackend.PACKED_OFF_HEAP);
+        for (int i = 0; i < 3; i++) {
+            store(area, "B" + i);
+        }
+        persistence.close();
+
+        StoragePersistence reopened = StoragePersistence.open(dir.toString(), 2, 0);
+        try {
+            StorageArea recovered = reopened.recover(5, 5, false);
+            assertEquals(ShelfBackend.PACKED_OFF_HEAP, recovered.getBackend());
+            assertEquals(3, recovered.boxCount());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    // Journal count boxes without a snapshot and return the journal file
+    private Path writeBoxes(int count) throws Exception {
+        StoragePersistence persistence = StoragePersistence.open(dir.toString(), 1000, 0);
+        StorageArea area = persistence.recover(5, 5, false);
+        for (int i = 0; i < count; i++) {
+            store(area, "B" + i);
+        }
+        persistence.close();
+        return dir.resolve("storage.wal");
+    }
+
+    private static void store(StorageArea area, String id) {
+        Box box = new Box(id, "2.5", "parts");
+        Position slot = area.claimEmptySlot();
+        box.setPosition(slot.getRow(), slot.getCol());
+        assertEquals(Outcome.OK, area.storeBox(box));
+    }
+}
@@ -0,0 +1,62 @@
+package warehouse;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class StringPoolTest {
+    @Test
+    void equalStringsShareOneHandleUntilTheLastRelease() {
+        StringPool pool = new StringPool();
+        int first = pool.acquire("crate");
+        int second = pool.acquire(new String("crate"));
+        assertEquals(first, second);
+        assertNotEquals(first, pool.acquire("pallet"));
+
+        pool.release(first);
+        assertEquals("crate", pool.get(second));
+        assertEquals(second, pool.acquire("crate"));
+    }
+
+    // Random acquire/release against a plain map: after deletions (backward-shift in the
+    // probe table, handles reused from the free list) every live string still resolves to
+    // its handle and acquiring it again finds the same one
+    @Test
+    void randomAcquireAndReleaseMatchesAReferenceModel() {
+        StringPool pool = new StringPool();
+        Random random = new Random(42);
+        Map<String, Integer> handles = new HashMap<>();
+        Map<String, Integer> refs = new HashMap<>();
+
+        for (int op = 1; op <= 200_000; op++) {
+            String value = "v" + random.nextInt(3000);
+            if (!refs.containsKey(value) || random.nextBoolean()) {
+                int handle = pool.acquire(value);
+                Integer known = handles.putIfAbsent(value, handle);
+                if (known != null) assertEquals(known.intValue(), handle, value);
+                refs.merge(value, 1, Integer::sum);
+            } else {
+                pool.release(handles.get(value));
+                if (refs.merge(value, -1, Integer::sum) == 0) {
+                    refs.remove(value);
+                    handles.remove(value);
+                }
+            }
+            if (op % 5_000 == 0) {
+                for (Map.Entry<String, Integer> live : handles.entrySet()) {
+                    assertEquals(live.getKey(), pool.get(live.getValue()));
+                }
+            }
+        }
+        for (Map.Entry<String, Integer> live : handles.entrySet()) {
+            int handle = pool.acquire(live.getKey());
+            assertEquals(live.getValue().intValue(), handle, live.getKey());
+            pool.release(handle);
+        }
+    }
+}
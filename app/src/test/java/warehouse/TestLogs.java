@@ -0,0 +1,15 @@
+package warehouse;
+
+// Logging setup shared by the tests: CapstoneProject.router points at a log that is already
+// closed, so every line is dropped, nothing is written under Logs/ and nothing is echoed.
+final class TestLogs {
+    private TestLogs() {
+    }
+
+    static void quiet() {
+        LogManager log = new LogManager("Test");
+        log.closeLog();
+        CapstoneProject.router = new LogRouter(log, log, log, log);
+        CapstoneProject.router.setConsole(false);
+    }
+}
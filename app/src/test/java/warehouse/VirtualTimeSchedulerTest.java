@@ -0,0 +1,91 @@
+package warehouse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VirtualTimeSchedulerTest {
+    private final VirtualTimeScheduler clock = new VirtualTimeScheduler();
+
+    @AfterEach
+    void stopProcesses() {
+        clock.shutdown();
+    }
+
+    @Test
+    void eventsRunByTimeThenInTheOrderTheyWereScheduled() {
+        List<String> seen = new ArrayList<>();
+        clock.schedule(20, () -> seen.add("b@" + clock.now()));
+        clock.schedule(10, () -> seen.add("a@" + clock.now()));
+        clock.schedule(20, () -> seen.add("c@" + clock.now()));
+        clock.schedule(0, () -> clock.schedule(5, () -> seen.add("d@" + clock.now())));
+        clock.run();
+
+        assertEquals(List.of("d@5", "a@10", "b@20", "c@20"), seen);
+        assertEquals(20, clock.now());
+    }
+
+    @Test
+    void runUntilStopsAtTheGivenTime() {
+        List<Long> seen = new ArrayList<>();
+        clock.schedule(10, () -> seen.add(clock.now()));
+        clock.schedule(30, () -> seen.add(clock.now()));
+
+        clock.runUntil(20);
+        assertEquals(List.of(10L), seen);
+        assertEquals(20, clock.now());
+
+        clock.run();
+        assertEquals(List.of(10L, 30L), seen);
+    }
+
+    @Test
+    void processesInterleaveByVirtualTime() {
+        List<String> trace = Collections.synchronizedList(new ArrayList<>());
+        clock.spawn("slow", () -> {
+            trace.add("slow start@" + clock.now());
+            clock.advance(30);
+            trace.add("slow end@" + clock.now());
+        });
+        clock.spawn("fast", () -> {
+            for (int i = 0; i < 3; i++) {
+                clock.advance(10);
+                trace.add("fast@" + clock.now());
+            }
+        });
+        clock.run();
+
+        // at 30 the slow process wakes first, its wake-up was scheduled before the fast one's
+        assertEquals(List.of("slow start@0", "fast@10", "fast@20", "slow end@30", "fast@30"), trace);
+    }
+
+    @Test
+    void awaitParksAProcessUntilTheFutureCompletes() {
+        CompletableFuture<String> delivery = new CompletableFuture<>();
+        long[] resumedAt = {-1};
+        clock.spawn("waiter", () -> {
+            clock.await(delivery);
+            resumedAt[0] = clock.now();
+        });
+        clock.schedule(50, () -> delivery.complete("ok"));
+        clock.run();
+
+        assertEquals(50, resumedAt[0]);
+    }
+
+    @Test
+    void aFailingProcessStopsTheEventLoop() {
+        clock.spawn("broken", () -> {
+            throw new IllegalStateException("boom");
+        });
+        IllegalStateException e = assertThrows(IllegalStateException.class, clock::run);
+        assertEquals("boom", e.getMessage());
+    }
+}
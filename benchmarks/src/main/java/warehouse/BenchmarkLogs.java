@@ -0,0 +1,33 @@
+package warehouse;
+
+import java.io.File;
+
+// Logging setup shared by the benchmarks: every category goes to one async Logs/Benchmark
+// log and nothing is echoed, like a simulate run. The log is deleted afterwards, a
+// benchmark run writes a lot of lines nobody reads.
+final class BenchmarkLogs {
+    private BenchmarkLogs() {
+    }
+
+    static LogManager open(boolean async) throws InvalidPathException {
+        LogManager log = new LogManager("Benchmark");
+        log.initializeLog();
+        if (async) log.enableAsync();
+        return log;
+    }
+
+    // Route CapstoneProject.router to a fresh async log with the console echo off
+    static LogManager route() throws InvalidPathException {
+        LogManager log = open(true);
+        CapstoneProject.router = new LogRouter(log, log, log, log);
+        CapstoneProject.router.setConsole(false);
+        return log;
+    }
+
+    static void discard(LogManager log) {
+        log.closeLog();
+        for (File segment : log.getSegmentFiles()) {
+            segment.delete();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package warehouse;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+// Entry point of benchmarks.jar. Takes the usual JMH command line, but always adds the GC
+// profiler (GC time, allocation rate and bytes allocated per operation) and writes JSON
+// results to jmh-result.json unless -rf/-rff say otherwise, so two builds can be diffed.
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions command = new CommandLineOptions(args);
+        if (command.shouldHelp() || command.shouldList() || command.shouldListWithParams()
+                || command.shouldListProfilers() || command.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(command);
+        boolean gcProfiled = false;
+        for (ProfilerConfig profiler : command.getProfilers()) {
+            String name = profiler.getKlass();
+            if (name.equals("gc") || name.equals(GCProfiler.class.getName())) gcProfiled = true;
+        }
+        if (!gcProfiled) options.addProfiler(GCProfiler.class);
+        if (!command.getResultFormat().hasValue()) options.resultFormat(ResultFormatType.JSON);
+        if (!command.getResult().hasValue()) options.result("jmh-result.json");
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,57 @@
+package warehouse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// LogManager.log throughput, written and flushed on the caller's thread (sync) or queued
+// for the background writer (async), from one thread and from four threads sharing a log.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogManagerBenchmark {
+    private static final String MESSAGE = "[AGV] AGV#1 moved from [10,10] to [-1,-1] (22 cells)";
+
+    @Param({"sync", "async"})
+    public String mode;
+
+    private LogManager log;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidPathException {
+        log = BenchmarkLogs.open(mode.equals("async"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkLogs.discard(log);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void logSingleThread() {
+        log.log(MESSAGE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logFourThreads() {
+        log.log(MESSAGE);
+    }
+}
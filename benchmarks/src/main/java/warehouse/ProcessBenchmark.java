@@ -0,0 +1,59 @@
+package warehouse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// One full Storing.execute followed by the Retrieving.execute that takes the box out again,
+// on the 5x5 warehouse of the menu. Moves are instant on the real-time scheduler, so this
+// measures the code path: swap check, route queries, battery, storage, logging and metrics.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessBenchmark {
+    private LogManager log;
+    private StorageArea area;
+    private AGV agv;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidPathException {
+        log = BenchmarkLogs.route();
+        area = new StorageArea(5, 5);
+        CapstoneProject.planner = GridPlanner.forWarehouse(5, 5, Arrays.asList(
+                new ChargingStation("CS1", new Position(0, 5)), new ChargingStation("CS2", new Position(1, 5))));
+        agv = new AGV("1");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkLogs.discard(log);
+    }
+
+    @Benchmark
+    public Box storeThenRetrieve() throws ProcessException {
+        // a fresh AGV instead of a charge, which would take seconds of scheduler time
+        if (agv.getBattery().getLevel() < 50) agv = new AGV("1");
+
+        Box box = new Box("P", "10", "benchmark");
+        Position slot = area.claimEmptySlot();
+        box.setPosition(slot.getRow(), slot.getCol());
+        new Storing(agv, box, area).executeTimed();
+        new Retrieving(agv, box, area).executeTimed();
+        return box;
+    }
+}
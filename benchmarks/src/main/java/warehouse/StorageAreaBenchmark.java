@@ -0,0 +1,102 @@
+package warehouse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// StorageArea lookups and updates on square grids from 5x5 to 1000x1000, half full
+// (every other slot holds a box, so free slots and boxes are spread over every row).
+// storeBox and retrieveBox each get one box slot reset before every call; the reset runs
+// outside the measured time but adds JMH's per-invocation overhead (tens of ns).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageAreaBenchmark {
+    @Param({"5", "50", "200", "1000"})
+    public int size;
+
+    private LogManager log;
+    private StorageArea area;
+    private String[] storedIds;
+    private int next;
+    private Box churn;   // stored and retrieved at slot 1, which setUp leaves empty
+
+    @Setup(Level.Trial)
+    public void setUp() throws InvalidPathException {
+        log = BenchmarkLogs.route();
+        area = new StorageArea(size, size);
+        storedIds = new String[(size * size + 1) / 2];
+        for (int i = 0; i < storedIds.length; i++) {
+            int slot = i * 2;
+            Box box = new Box("B" + i, "10", "benchmark");
+            box.setPosition(slot / size, slot % size);
+            area.restoreBox(box);
+            storedIds[i] = box.getId();
+        }
+        churn = new Box("churn", "10", "benchmark");
+        churn.setPosition(1 / size, 1 % size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkLogs.discard(log);
+    }
+
+    @Benchmark
+    public Position findEmptySlot() {
+        return area.findEmptySlot();
+    }
+
+    @Benchmark
+    public Position findBoxById() {
+        if (++next == storedIds.length) next = 0;
+        return area.findBoxById(storedIds[next]);
+    }
+
+    @Benchmark
+    public Position findBoxByIdMissing() {
+        return area.findBoxById("missing");
+    }
+
+    @Benchmark
+    public Outcome storeBox(EmptySlot empty) {
+        return area.storeBox(churn);
+    }
+
+    @Benchmark
+    public Box retrieveBox(FilledSlot filled) {
+        return area.retrieveBox(churn.getRow(), churn.getColumn());
+    }
+
+    @State(Scope.Thread)
+    public static class EmptySlot {
+        @Setup(Level.Invocation)
+        public void clear(StorageAreaBenchmark benchmark) {
+            Box churn = benchmark.churn;
+            benchmark.area.removeRestored(churn.getRow(), churn.getColumn(), churn.getId());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FilledSlot {
+        @Setup(Level.Invocation)
+        public void fill(StorageAreaBenchmark benchmark) {
+            benchmark.area.restoreBox(benchmark.churn);
+        }
+    }
+}